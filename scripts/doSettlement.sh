@@ -13,4 +13,17 @@ fi
 
 port=`sed -n -e '/ccp/,/tradingParties/p' config.yaml|awk '/port:/ { print $2 }'`
 
-curl http://localhost:${port}/settle?date=$date
+# Settlement runs as a job on the CCP - poll the job until it finishes
+started=`curl -s http://localhost:${port}/settle?date=$date`
+job=`echo "$started" | sed -n -e 's/^Started job [0-9]*: //p'`
+if [[ "$job" = "" ]]
+then
+  echo "$started" 1>&2
+  exit 1
+fi
+
+while curl -s http://localhost:${port}${job} | grep -q '^state: RUNNING'
+do
+  sleep 1
+done
+curl -s http://localhost:${port}${job} | sed -n -e 's/^outcome: //p'
@@ -6,4 +6,10 @@
 
 port=`sed -n -e '/ccp/,/tradingParties/p' config.yaml|awk '/port:/ { print $2 }'`
 
-curl http://localhost:$port/tradeState
+# With a query, such as 'date=2018-06-28&participant=Citi', list the trades as JSON
+if [[ "$1" = "" ]]
+then
+  curl http://localhost:$port/tradeState
+else
+  curl "http://localhost:$port/trades?$1"
+fi
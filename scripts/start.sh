@@ -33,15 +33,17 @@ trap stop 1 2 3
 state=running
 
 injectDelay=""
+injectRate=""
 
-while getopts "d:" opt
+while getopts "d:r:" opt
 do
   case $opt in
   "d") injectDelay="--injectDelay $OPTARG" ;;
+  "r") injectRate="--tradesPerSecond $OPTARG" ;;
   "*") echo "Invalid option: -$opt" >&2 ;;
   esac
-  shift $((OPTIND-1))
 done
+shift $((OPTIND-1))
 
 TRADE_FILE=${1:-data/Trades12-2018-06-28.csv}
 
@@ -49,7 +51,7 @@ rm -f $BASE/logs/apps.log
 
 for p in `sed -n -e '/tradingParties/,$p' config.yaml|awk '/name:/ { print $3 }'`
 do
-  run tradingParticipant $injectDelay $p $TRADE_FILE
+  run tradingParticipant $injectDelay $injectRate $p $TRADE_FILE
 done
 
 run operator
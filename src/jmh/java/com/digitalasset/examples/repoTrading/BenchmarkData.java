@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import main.dvp.CashAllocatedDvP;
+import main.security.Security;
+import main.trade.NovatedTrade;
+import main.trade.Trade;
+import main.trade.TradeRecord;
+
+/**
+ * Synthetic contracts for the benchmarks. The data is generated from a fixed seed, so each run
+ * sees the same contracts, spread over a few settlement dates, participants and CUSIPs.
+ */
+final class BenchmarkData {
+
+  static final String CCP = "CCP";
+  static final String PAYMENT_PROCESSOR = "PaymentProc";
+
+  private static final String[] PARTIES = {
+    "Citi", "HSBC", "JPMorgan", "Barclays", "BNP", "Nomura", "UBS", "Santander"
+  };
+  private static final int CUSIP_COUNT = 200;
+  private static final int DATE_COUNT = 5;
+  private static final LocalDate FIRST_DATE = LocalDate.of(2018, 6, 28);
+  private static final long SEED = 42;
+
+  private BenchmarkData() {}
+
+  static String cusip(int i) {
+    return "CUSIP" + (i % CUSIP_COUNT);
+  }
+
+  static Instant settlementDate(int i) {
+    return FIRST_DATE.plusDays(i % DATE_COUNT).atStartOfDay(ZoneOffset.UTC).toInstant();
+  }
+
+  static String contractId(String prefix, int i) {
+    return "#" + prefix + ":" + i;
+  }
+
+  static List<Trade> trades(int count) {
+    Random random = new Random(SEED);
+    List<Trade> trades = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int lender = random.nextInt(PARTIES.length);
+      int borrower = (lender + 1 + random.nextInt(PARTIES.length - 1)) % PARTIES.length;
+      trades.add(new Trade(PARTIES[borrower], PARTIES[lender], tradeRecord(i, random), CCP));
+    }
+    return trades;
+  }
+
+  static List<NovatedTrade> novatedTrades(int count) {
+    Random random = new Random(SEED);
+    List<NovatedTrade> novatedTrades = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      novatedTrades.add(
+          new NovatedTrade(
+              PARTIES[random.nextInt(PARTIES.length)],
+              random.nextBoolean(),
+              tradeRecord(i, random),
+              CCP));
+    }
+    return novatedTrades;
+  }
+
+  static List<Security> securities(int count) {
+    Random random = new Random(SEED);
+    List<Security> securities = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      securities.add(new Security(cusip(i), CCP, quantity(random), CCP));
+    }
+    return securities;
+  }
+
+  static List<CashAllocatedDvP> cashAllocatedDvps(int count) {
+    Random random = new Random(SEED + 1);
+    List<CashAllocatedDvP> dvps = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      BigDecimal quantity = quantity(random);
+      dvps.add(
+          new CashAllocatedDvP(
+              CCP,
+              PAYMENT_PROCESSOR,
+              CCP,
+              PARTIES[random.nextInt(PARTIES.length)],
+              settlementDate(i),
+              cusip(random.nextInt(CUSIP_COUNT)),
+              "USD",
+              quantity.multiply(BigDecimal.valueOf(95)),
+              quantity));
+    }
+    return dvps;
+  }
+
+  /**
+   * Write a trade file in the format read by the trading participants.
+   *
+   * @param count - the number of trades
+   * @return the file, to be deleted by the caller
+   */
+  static File tradeFile(int count) throws IOException {
+    File file = File.createTempFile("trades", ".csv");
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write(
+          "tradeId,lender,borrower,cusip,tradeDate,settlementDate,collateralQuantity,price,term,"
+              + "repoRate,startAmount,endAmount,currency");
+      writer.newLine();
+      for (Trade trade : trades(count)) {
+        TradeRecord t = trade.tradeInfo;
+        writer.write(
+            String.join(
+                ",",
+                t.tradeId.toString(),
+                trade.lender,
+                trade.borrower,
+                t.cusip,
+                t.tradeDate.atOffset(ZoneOffset.UTC).toLocalDate().toString(),
+                t.settlementDate.atOffset(ZoneOffset.UTC).toLocalDate().toString(),
+                t.collateralQuantity.toPlainString(),
+                t.price.toPlainString(),
+                t.term.toString(),
+                t.repoRate.toPlainString(),
+                t.startAmount.toPlainString(),
+                t.endAmount.toPlainString(),
+                t.currency));
+        writer.newLine();
+      }
+    }
+    return file;
+  }
+
+  private static TradeRecord tradeRecord(int i, Random random) {
+    BigDecimal quantity = quantity(random);
+    BigDecimal price = BigDecimal.valueOf(90 + random.nextInt(10));
+    BigDecimal startAmount = quantity.multiply(price).movePointLeft(2);
+    Instant settlementDate = settlementDate(i);
+    return new TradeRecord(
+        (long) i,
+        cusip(random.nextInt(CUSIP_COUNT)),
+        settlementDate,
+        settlementDate.minusSeconds(3 * 24 * 3600),
+        quantity,
+        price,
+        BigDecimal.valueOf(5.8),
+        26L,
+        startAmount,
+        startAmount.multiply(BigDecimal.valueOf(1.1)),
+        "USD");
+  }
+
+  private static BigDecimal quantity(Random random) {
+    return BigDecimal.valueOf(500_000L * (1 + random.nextInt(10)));
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.digitalasset.examples.repoTrading.util.CsvFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading a trade file, through the map based {@link CsvFile#recordStream()} and through the
+ * reusable record used by the trade feed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvFileBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int contracts;
+
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    file = BenchmarkData.tradeFile(contracts);
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void recordStream(Blackhole blackhole) throws IOException {
+    CsvFile csvFile = new CsvFile(file).open();
+    try {
+      csvFile.recordStream().forEach(blackhole::consume);
+    } finally {
+      csvFile.close();
+    }
+  }
+
+  @Benchmark
+  public void tradeRequests(Blackhole blackhole) throws IOException {
+    CsvFile csvFile = new CsvFile(file).open();
+    try {
+      TradeRequest.Columns columns = new TradeRequest.Columns(csvFile);
+      CsvFile.Record record = csvFile.getRecord();
+      while (csvFile.next()) {
+        blackhole.consume(TradeRequest.of(record, columns));
+      }
+    } finally {
+      csvFile.close();
+    }
+  }
+}
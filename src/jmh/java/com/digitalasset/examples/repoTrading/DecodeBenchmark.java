@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Record;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import main.trade.Trade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Decoding of contract create arguments, as done by {@code RepoMarketBot.asDomainObject}. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DecodeBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int contracts;
+
+  private List<Record> records;
+
+  @Setup
+  public void setup() {
+    records =
+        BenchmarkData.trades(contracts).stream().map(Trade::toValue).collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public void decodeTrades(Blackhole blackhole) {
+    for (Record record : records) {
+      blackhole.consume(RepoMarketBot.fromRecord(Trade.TEMPLATE_ID, record));
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import main.trade.NovatedTrade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Grouping novated trades for netting, which replaced the string keys of {@code
+ * getNovatedTradeDomainKey}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NettingKeyBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int contracts;
+
+  private Map<String, Template> novatedTrades;
+
+  @Setup
+  public void setup() {
+    List<NovatedTrade> contracts = BenchmarkData.novatedTrades(this.contracts);
+    novatedTrades = new HashMap<>();
+    for (int i = 0; i < contracts.size(); i++) {
+      novatedTrades.put(BenchmarkData.contractId("novatedTrade", i), contracts.get(i));
+    }
+  }
+
+  @Benchmark
+  public List<List<String>> group() {
+    return NettingKey.group(novatedTrades);
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import main.dvp.CashAllocatedDvP;
+import main.security.Security;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocating securities to cash allocated DvPs, as done by {@code
+ * ClearingHouseBot.allocateSecurity} for each DvP of an allocation pass. The inventory holds one
+ * lot per DvP. Each operation reserves lots for every DvP it can cover, then returns them as a
+ * failed allocation does, archived while pending and created again, so the next operation starts
+ * from the same inventory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SecurityAllocationBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int contracts;
+
+  private SecurityInventory inventory;
+  private List<CashAllocatedDvP> dvps;
+  private Map<String, Security> lots;
+
+  @Setup
+  public void setup() {
+    inventory = new SecurityInventory(BenchmarkData.CCP);
+    List<Security> securities = BenchmarkData.securities(contracts);
+    lots = new HashMap<>();
+    for (int i = 0; i < securities.size(); i++) {
+      String contractId = BenchmarkData.contractId("security", i);
+      lots.put(contractId, securities.get(i));
+      inventory.created(contractId, securities.get(i));
+    }
+    dvps = BenchmarkData.cashAllocatedDvps(contracts);
+  }
+
+  @Benchmark
+  public int allocate() {
+    List<String> reserved = new ArrayList<>();
+    for (CashAllocatedDvP dvp : dvps) {
+      Optional<List<String>> dvpLots = inventory.reserve(dvp.cusip, dvp.quantity);
+      dvpLots.ifPresent(reserved::addAll);
+    }
+    for (String contractId : reserved) {
+      inventory.archived(contractId);
+      inventory.created(contractId, lots.get(contractId));
+    }
+    return reserved.size();
+  }
+}
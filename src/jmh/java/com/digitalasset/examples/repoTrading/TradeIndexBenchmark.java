@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Maintaining the CCP's trades per settlement date, which replaced the full rescan of {@code
+ * updateTradeState}. Each operation creates and then archives every trade.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TradeIndexBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  int contracts;
+
+  private List<? extends Template> trades;
+  private String[] contractIds;
+
+  @Setup
+  public void setup() {
+    trades = BenchmarkData.trades(contracts);
+    contractIds = new String[contracts];
+    for (int i = 0; i < contracts; i++) {
+      contractIds[i] = BenchmarkData.contractId("trade", i);
+    }
+  }
+
+  @Benchmark
+  public void createAndArchive(Blackhole blackhole) {
+    TradeIndex index = new TradeIndex();
+    for (int i = 0; i < contracts; i++) {
+      index.created(contractIds[i], trades.get(i));
+    }
+    blackhole.consume(index.getTradeCounts());
+    for (int i = 0; i < contracts; i++) {
+      index.archived(contractIds[i]);
+    }
+    blackhole.consume(index.size());
+  }
+}
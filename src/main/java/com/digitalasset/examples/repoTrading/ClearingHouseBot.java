@@ -5,36 +5,47 @@
 package com.digitalasset.examples.repoTrading;
 
 import com.daml.ledger.javaapi.data.*;
-import com.daml.ledger.rxjava.components.LedgerViewFlowable;
 import com.daml.ledger.rxjava.components.helpers.CommandsAndPendingSet;
+import com.digitalasset.examples.repoTrading.util.AdaptiveBatchSizer;
+import com.digitalasset.examples.repoTrading.util.ControlJobs;
 import com.digitalasset.examples.repoTrading.util.ControlServer;
+import com.digitalasset.examples.repoTrading.util.JsonWriter;
 import com.sun.net.httpserver.HttpExchange;
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import main.cash.Cash;
 import main.ccp.InitiateSettlementControl;
 import main.ccp.InviteClearingHouse;
 import main.dvp.AllocatedDvP;
 import main.dvp.CashAllocatedDvP;
 import main.dvp.SettledDvP;
 import main.netobligation.NetObligation;
-import main.netting.NettingGroup;
 import main.security.Security;
 import main.trade.NovatedTrade;
 import main.trade.Trade;
+import org.kohsuke.args4j.Option;
 import org.pcollections.HashTreePMap;
 import org.pcollections.HashTreePSet;
 import org.pcollections.PSet;
@@ -45,33 +56,229 @@ public class ClearingHouseBot extends RepoMarketBot {
 
   private static final Logger log = LoggerFactory.getLogger(ClearingHouseBot.class);
 
+  private static final int DEFAULT_TRADE_PAGE_SIZE = 100;
+  private static final int MAX_TRADE_PAGE_SIZE = 1000;
+  private static final int COORDINATOR_POLL_SECONDS = 1;
+
   private final Identifier inviteClearingHouseTemplateId;
   private final Identifier initiateSettlementControlTemplateId;
 
+  // Argument parsing
+
+  @Option(
+      name = "--novationBatchSize",
+      metaVar = "BATCH_SIZE",
+      usage = "Novate up to BATCH_SIZE trades in each ledger command (default 1)")
+  private int novationBatchSize = 1;
+
+  @Option(
+      name = "--nettingChunkSize",
+      metaVar = "CHUNK_SIZE",
+      usage = "Form up to CHUNK_SIZE netting groups in each ledger command (default 500)")
+  private int nettingChunkSize = 500;
+
+  @Option(
+      name = "--minBatchSize",
+      metaVar = "SIZE",
+      usage =
+          "Net, create or settle at least SIZE netting groups, obligations or DvPs in each ledger"
+              + " command, when as many are waiting (default 1)")
+  private int minBatchSize = 1;
+
+  @Option(
+      name = "--maxBatchSize",
+      metaVar = "SIZE",
+      usage = "Net, create or settle at most SIZE in each ledger command (default 100)")
+  private int maxBatchSize = 100;
+
+  @Option(
+      name = "--batchLatency",
+      metaVar = "MILLIS",
+      usage =
+          "Grow batches while their commands complete within MILLIS, and shrink them when slower"
+              + " or failing (default 1000)")
+  private int batchLatency = 1000;
+
+  @Option(
+      name = "--compactionThreshold",
+      metaVar = "LOTS",
+      usage =
+          "Between settlement cycles, merge the CCP's Security lots of a CUSIP, or Cash lots of a"
+              + " currency, when there are more than LOTS of them. 0 disables (default 16)")
+  private int compactionThreshold = 16;
+
+  @Option(
+      name = "--partitions",
+      metaVar = "PARTITIONS",
+      usage = "Split the CUSIPs between PARTITIONS clearing house workers (default 1)")
+  private int partitions = 1;
+
+  @Option(
+      name = "--partition",
+      metaVar = "INDEX",
+      usage =
+          "The partition of CUSIPs this worker settles, from 0. Partition 0 coordinates the others"
+              + " (default 0)")
+  private int partitionIndex = 0;
+
+  @Option(
+      name = "--workers",
+      metaVar = "HOST:PORT,...",
+      usage = "For partition 0, the control servers of partitions 1 to PARTITIONS-1")
+  private String workers = null;
+
+  @Option(
+      name = "--controlPort",
+      metaVar = "PORT",
+      usage = "Serve control requests on PORT rather than the CCP port of the config file")
+  private int controlPort = 0;
+
   private String ccpContractId = null;
-  private LocalDate settlementDate;
 
   // State variables
-  private Boolean settlementInProgress = false;
-  private Boolean nettingInProgress = false;
-
   private int tradeCount = 0; // Total trades ingested
-  private int tradesNovatedCount = 0; // Total trades novated (i.e settling today)
-  private int dvpCount = 0; // The number of dvp's that will be created
-
-  private ConcurrentHashMap<LocalDate, Set<Map.Entry<String, Template>>> tradesPerDate =
-      new ConcurrentHashMap<>(); // Count of trades per settlementDate
+  private final ConcurrentSkipListMap<LocalDate, SettlementCycle> cycles =
+      new ConcurrentSkipListMap<>(); // Settlement cycles in progress, by settlementDate
+
+  // Partitioned settlement, where each worker settles the trades of its own CUSIPs
+  private CusipPartition partition = CusipPartition.ALL;
+  private PartitionCoordinator coordinator = null; // On partition 0 only
+  private final ConcurrentSkipListMap<LocalDate, PartitionCoordinator.CycleSummary>
+      completedCycles = new ConcurrentSkipListMap<>(); // Settled here, awaiting the others
+  private final ConcurrentHashMap<String, LocalDate> sentinels =
+      new ConcurrentHashMap<>(); // Active sentinel contractIds, and their settlementDate
+  private final Set<LocalDate> archivingDates = ConcurrentHashMap.newKeySet();
+
+  // The contracts of this partition's CUSIPs waiting at each end of cycle stage. Every partition
+  // receives the contracts of all CUSIPs, so they are filtered once, as they arrive
+  private final ContractQueue nettingGroups = new ContractQueue();
+  private final ContractQueue netObligations = new ContractQueue();
+  private final ContractQueue cashAllocatedDvps = new ContractQueue();
+  private final ContractQueue allocatedDvps = new ContractQueue();
+
+  // A netting group's CUSIP is that of its NovatedTrades. When partitioned, their CUSIPs are kept
+  // until their settlement date has settled in every partition, and a group seen before its first
+  // NovatedTrade, as the active contract set may be, waits for it
+  private final Map<String, String> novatedTradeCusips = new HashMap<>(); // By contractId
+  private final Map<LocalDate, List<String>> novatedTradesPerDate = new HashMap<>();
+  private final Map<String, Template> unresolvedGroups = new HashMap<>(); // By contractId
+  private final Map<String, String> unresolvedGroupIds =
+      new HashMap<>(); // Unresolved group contractIds by the contractId of their first NovatedTrade
+
+  // Batch sizes of the end of cycle stages, adapted to the latency and failures of their commands
+  private AdaptiveBatchSizer netTradesBatches;
+  private AdaptiveBatchSizer createDvpBatches;
+  private AdaptiveBatchSizer settleDvpBatches;
+
+  // The CCP's own lots that compaction may merge: Security lots of this partition's CUSIPs, by
+  // CUSIP, and for partition 0, Cash lots by currency and payment processor, as merging keeps
+  // the currency and payment processor of one lot
+  private final LotCompaction.Groups<String> securityLots =
+      new LotCompaction.Groups<>(c -> ((Security) c).cusip, () -> compactionThreshold);
+  private final LotCompaction.Groups<String> cashLots =
+      new LotCompaction.Groups<>(
+          c -> ((Cash) c).currency + "/" + ((Cash) c).paymentProcessor, () -> compactionThreshold);
+
+  private final ConcurrentHashMap<LocalDate, AtomicInteger> settledDvpsPerDate =
+      new ConcurrentHashMap<>(); // Count of SettledDvPs created per settlementDate
+
+  private final TradeIndex tradesPerDate = new TradeIndex(); // Active trades per settlementDate
+  private final SecurityInventory securityInventory; // Securities available for allocation
 
   public ConcurrentHashMap<LocalDate, Long> getTradeCountsPerDate() {
-    ConcurrentHashMap<LocalDate, Long> result = new ConcurrentHashMap<>();
-    tradesPerDate.forEach((d, s) -> result.put(d, (long) s.size()));
-    return result;
+    return tradesPerDate.getTradeCounts();
   }
 
   public ClearingHouseBot(RepoTradingMain mainClass, String party) {
     super(mainClass, party);
     this.inviteClearingHouseTemplateId = InviteClearingHouse.TEMPLATE_ID;
     this.initiateSettlementControlTemplateId = InitiateSettlementControl.TEMPLATE_ID;
+
+    this.securityInventory = new SecurityInventory(party);
+
+    addContractListener(
+        tradeTemplateId, filtered(c -> partition.owns(((Trade) c).tradeInfo.cusip), tradesPerDate));
+    addContractListener(
+        securityTemplateId,
+        filtered(c -> partition.owns(((Security) c).cusip), securityInventory));
+    addContractListener(
+        securityTemplateId,
+        filtered(
+            c ->
+                ((Security) c).owner.equals(getParty()) && partition.owns(((Security) c).cusip),
+            securityLots));
+    addContractListener(
+        cashTemplateId,
+        filtered(c -> ((Cash) c).owner.equals(getParty()) && partition.isCoordinator(), cashLots));
+    addContractListener(
+        initiateSettlementControlTemplateId,
+        new ContractListener() {
+          @Override
+          public void created(String contractId, Template contract) {
+            sentinels.put(
+                contractId,
+                toLocalDate(((InitiateSettlementControl) contract).settlementDate));
+          }
+
+          @Override
+          public void archived(String contractId) {
+            LocalDate date = sentinels.remove(contractId);
+            if (date != null && !sentinels.containsValue(date)) {
+              completedCycles.remove(date);
+              archivingDates.remove(date);
+              List<String> tradeIds = novatedTradesPerDate.remove(date);
+              if (tradeIds != null) {
+                tradeIds.forEach(novatedTradeCusips::remove);
+              }
+            }
+          }
+        });
+    addContractListener(
+        nettingGroupTemplateId,
+        new ContractListener() {
+          @Override
+          public void created(String contractId, Template contract) {
+            nettingGroupFormed(contractId, contract);
+            queueNettingGroup(contractId, contract);
+          }
+
+          @Override
+          public void archived(String contractId) {
+            nettingGroups.archived(contractId);
+            Template group = unresolvedGroups.remove(contractId);
+            if (group != null) {
+              unresolvedGroupIds.remove(NettingProgress.tradeIds(group).get(0));
+            }
+          }
+        });
+    addContractListener(
+        netObligationTemplateId,
+        filtered(c -> partition.owns(((NetObligation) c).cusip), netObligations));
+    addContractListener(
+        cashAllocatedDvpTemplateId,
+        filtered(c -> partition.owns(((CashAllocatedDvP) c).cusip), cashAllocatedDvps));
+    addContractListener(
+        allocatedDvpTemplateId,
+        filtered(c -> partition.owns(((AllocatedDvP) c).cusip), allocatedDvps));
+    addContractListener(
+        novatedTradeTemplateId,
+        new ContractListener() {
+          @Override
+          public void created(String contractId, Template contract) {
+            novatedTradeCreated(contractId, contract);
+          }
+
+          @Override
+          public void archived(String contractId) {
+            cycles.values().forEach(cycle -> cycle.novatedTradeArchived(contractId));
+          }
+        });
+    observeCreated(settledDvpTemplateId, this::dvpSettled);
+
+    handleCreated(ccpTemplateId, this::saveCcpContractId);
+    handleCreated(inviteClearingHouseTemplateId, this::acceptCcpInvite);
+
+    readContracts(initiateSettlementControlTemplateId);
   }
 
   @Override
@@ -79,10 +286,63 @@ public class ClearingHouseBot extends RepoMarketBot {
     if (!RepoTradingMain.parseArguments(this, args)) {
       return 1;
     }
+    if (novationBatchSize < 1 || nettingChunkSize < 1) {
+      logError("--novationBatchSize and --nettingChunkSize must be at least 1");
+      return 1;
+    }
+    if (compactionThreshold < 0 || compactionThreshold == 1) {
+      logError("--compactionThreshold must be 0, or at least 2");
+      return 1;
+    }
+    if (minBatchSize < 1 || maxBatchSize < minBatchSize || batchLatency < 1) {
+      logError(
+          "--minBatchSize and --batchLatency must be at least 1, and --maxBatchSize at least"
+              + " --minBatchSize");
+      return 1;
+    }
+    long batchLatencyNanos = TimeUnit.MILLISECONDS.toNanos(batchLatency);
+    netTradesBatches = new AdaptiveBatchSizer(minBatchSize, maxBatchSize, batchLatencyNanos);
+    createDvpBatches = new AdaptiveBatchSizer(minBatchSize, maxBatchSize, batchLatencyNanos);
+    settleDvpBatches = new AdaptiveBatchSizer(minBatchSize, maxBatchSize, batchLatencyNanos);
 
-    new ControlServer(getConfiguration().getCcp().getPort())
+    if (partitions < 1 || partitionIndex < 0 || partitionIndex >= partitions) {
+      logError("--partitions must be at least 1, and --partition from 0 to PARTITIONS-1");
+      return 1;
+    }
+    partition = new CusipPartition(partitionIndex, partitions);
+
+    if (partition.isPartitioned() && partition.isCoordinator()) {
+      List<String> workerList =
+          workers == null ? Collections.emptyList() : Arrays.asList(workers.split(","));
+      if (workerList.size() != partitions - 1) {
+        logError(
+            String.format(
+                "--workers must list the control servers of the other %d partitions",
+                partitions - 1));
+        return 1;
+      }
+      coordinator = new PartitionCoordinator(workerList);
+      Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, getParty() + "-coordinator");
+                t.setDaemon(true);
+                return t;
+              })
+          .scheduleWithFixedDelay(
+              this::coordinateSettlement,
+              COORDINATOR_POLL_SECONDS,
+              COORDINATOR_POLL_SECONDS,
+              TimeUnit.SECONDS);
+    }
+    if (partition.isPartitioned()) {
+      logMessage("settling " + partition);
+    }
+
+    newControlServer(controlPort > 0 ? controlPort : getConfiguration().getCcp().getPort())
         .addHandler("/settle", this::handleSettlement)
         .addHandler("/tradeState", this::handleTradeState)
+        .addHandler("/trades", this::handleTrades)
+        .addHandler(PartitionCoordinator.ROUTE, this::handlePartition)
         .start();
 
     return super.run(args);
@@ -98,68 +358,262 @@ public class ClearingHouseBot extends RepoMarketBot {
     }
 
     String dateStr = params.get("date");
+    LocalDate date;
     try {
-      LocalDate date = LocalDate.parse(dateStr);
-
-      log.debug("handleSettlement date={}", date);
-
-      startSettlement(date)
-          .orElse(Stream.empty())
-          .map(cps -> cps.getSubmitCommandsRequest())
-          .forEach(scr -> submitCommands(scr.getWorkflowId(), scr.getCommands()));
-
-      return new ControlServer.ControlResult(200, "Settled\n");
+      date = LocalDate.parse(dateStr);
     } catch (DateTimeParseException ex) {
       log.debug("Bad date format: date={}", dateStr);
       return new ControlServer.ControlResult(400, "Bad date format: date=" + dateStr + "\n");
     }
+
+    if (!partition.isCoordinator()) {
+      return new ControlServer.ControlResult(
+          400, "Settlement is started by partition 0, which coordinates this " + partition + "\n");
+    }
+
+    log.debug("handleSettlement date={}", date);
+    return ControlJobs.accepted(getJobs().submit("settle " + date, job -> settle(date, job)));
+  }
+
+  /**
+   * Initiate settlement for a date, as a control job. The job's steps are the novation commands,
+   * and it completes when they all have. When partitioned, the job creates a sentinel for the date
+   * instead, and every partition settles its own trades from the sentinel.
+   *
+   * @param date - the settlement date
+   * @param job - the job, to report progress to
+   * @return the outcome
+   */
+  private String settle(LocalDate date, ControlJobs.Job job) {
+    if (cycles.containsKey(date) || completedCycles.containsKey(date)) {
+      return "Settlement already in progress for " + date; // Or awaiting the other partitions
+    }
+    if (partition.isPartitioned()) {
+      if (ccpContractId == null) {
+        return "The CCP has not been created yet";
+      }
+      submitCommands(
+              SETTLEMENT_WORKFLOW_ID,
+              Collections.singletonList(
+                  newExercise(
+                      ccpTemplateId,
+                      ccpContractId,
+                      "InitiateSettlement",
+                      new Record.Field(
+                          "settlementDate",
+                          Timestamp.fromInstant(date.atStartOfDay(ZoneOffset.UTC).toInstant())))))
+          .join();
+      return String.format("Settlement initiated in %d partitions", partition.count);
+    }
+    List<SubmitCommandsRequest> requests =
+        startSettlement(date)
+            .orElse(Stream.empty())
+            .map(CommandsAndPendingSet::getSubmitCommandsRequest)
+            .collect(Collectors.toList());
+    job.setTotal(requests.size());
+
+    // Submit all the settlement commands before waiting for any of them
+    CompletableFuture.allOf(
+            requests.stream()
+                .map(
+                    scr ->
+                        getSubmitter()
+                            .submit(scr) // Under its own commandId, tracked by novateTrades
+                            .whenComplete((commandId, e) -> job.stepDone()))
+                .toArray(CompletableFuture[]::new))
+        .join();
+
+    return requests.isEmpty() ? "No trades to settle on " + date : "Settled";
+  }
+
+  /**
+   * Control route reporting the dates this partition has settled, while the coordinator waits for
+   * the other partitions to settle them
+   *
+   * @param exchange - the request
+   * @return a line per date, from {@link PartitionCoordinator#status(Map)}
+   */
+  private ControlServer.ControlResult handlePartition(HttpExchange exchange) {
+    return new ControlServer.ControlResult(200, PartitionCoordinator.status(completedCycles));
+  }
+
+  /**
+   * Archive the sentinels of the dates settled in every partition. Runs periodically on the
+   * coordinator, off the bot thread.
+   */
+  private void coordinateSettlement() {
+    try {
+      for (Map.Entry<LocalDate, PartitionCoordinator.CycleSummary> own :
+          completedCycles.entrySet()) {
+        LocalDate date = own.getKey();
+        if (archivingDates.contains(date)) {
+          continue;
+        }
+        PartitionCoordinator.CycleSummary total = coordinator.settled(date, own.getValue());
+        if (total == null) {
+          continue; // Not yet settled in every partition
+        }
+
+        List<Command> commands =
+            sentinels.entrySet().stream()
+                .filter(e -> e.getValue().equals(date))
+                .map(
+                    e ->
+                        (Command)
+                            newExercise(
+                                initiateSettlementControlTemplateId,
+                                e.getKey(),
+                                "ArchiveInitiateSettlementControl"))
+                .collect(Collectors.toList());
+        archivingDates.add(date);
+        submitCommands(SETTLEMENT_WORKFLOW_ID, commands)
+            .whenComplete(
+                (commandId, e) -> {
+                  if (e != null) {
+                    archivingDates.remove(date); // Try again on the next poll
+                  }
+                });
+
+        logMessage(
+            String.format(
+                "Settlement complete for %s in %d partitions, %d trades and %d DvP's processed.",
+                date, partition.count, total.trades, total.dvps));
+      }
+    } catch (RuntimeException e) {
+      log.warn("coordinating settlement failed", e);
+    }
   }
 
   private ControlServer.ControlResult handleTradeState(HttpExchange exchange) {
     StringBuilder tradeState = new StringBuilder();
 
-    for (Map.Entry<LocalDate, Set<Map.Entry<String, Template>>> entry : tradesPerDate.entrySet()) {
+    for (Map.Entry<LocalDate, Long> entry : getTradeCountsPerDate().entrySet()) {
       tradeState.append(entry.getKey().toString());
       tradeState.append(" ");
-      tradeState.append(entry.getValue().size());
+      tradeState.append(entry.getValue());
       tradeState.append("\n");
     }
     return new ControlServer.ControlResult(200, tradeState.toString());
   }
 
+  /**
+   * Control route querying the active trades, as JSON. The parameters date, participant, cusip and
+   * currency select the trades, limit sets the page size, and cursor continues from the nextCursor
+   * of the previous page. The count and totals are of all the selected trades.
+   *
+   * @param exchange - the request
+   * @return a page of trades
+   */
+  private ControlServer.ControlResult handleTrades(HttpExchange exchange) {
+    Map<String, String> params = ControlServer.parseQuery(exchange.getRequestURI().getQuery());
+
+    TradeIndex.TradeFilter filter;
+    int limit;
+    String afterContractId = null;
+    try {
+      filter =
+          new TradeIndex.TradeFilter(
+              params.containsKey("date") ? LocalDate.parse(params.get("date")) : null,
+              params.get("participant"),
+              params.get("cusip"),
+              params.get("currency"));
+      limit = Integer.parseInt(params.getOrDefault("limit", "" + DEFAULT_TRADE_PAGE_SIZE));
+      if (params.containsKey("cursor")) {
+        afterContractId =
+            new String(
+                Base64.getUrlDecoder().decode(params.get("cursor")), StandardCharsets.UTF_8);
+      }
+    } catch (DateTimeParseException | IllegalArgumentException ex) {
+      return new ControlServer.ControlResult(400, "Bad query: " + ex.getMessage() + "\n");
+    }
+    if (limit < 1 || limit > MAX_TRADE_PAGE_SIZE) {
+      return new ControlServer.ControlResult(
+          400, "limit must be from 1 to " + MAX_TRADE_PAGE_SIZE + "\n");
+    }
+
+    TradeIndex.TradePage page = tradesPerDate.query(filter, afterContractId, limit);
+
+    JsonWriter json =
+        new JsonWriter()
+            .beginObject()
+            .name("count")
+            .value(page.totals.getCount())
+            .name("startAmount")
+            .value(page.totals.getStartAmount())
+            .name("collateralQuantity")
+            .value(page.totals.getCollateralQuantity())
+            .name("trades")
+            .beginArray();
+    for (Map.Entry<String, Trade> entry : page.trades) {
+      Trade trade = entry.getValue();
+      json.beginObject()
+          .name("contractId")
+          .value(entry.getKey())
+          .name("tradeId")
+          .value(trade.tradeInfo.tradeId)
+          .name("lender")
+          .value(trade.lender)
+          .name("borrower")
+          .value(trade.borrower)
+          .name("cusip")
+          .value(trade.tradeInfo.cusip)
+          .name("tradeDate")
+          .value(toLocalDate(trade.tradeInfo.tradeDate).toString())
+          .name("settlementDate")
+          .value(toLocalDate(trade.tradeInfo.settlementDate).toString())
+          .name("collateralQuantity")
+          .value(trade.tradeInfo.collateralQuantity)
+          .name("price")
+          .value(trade.tradeInfo.price)
+          .name("startAmount")
+          .value(trade.tradeInfo.startAmount)
+          .name("endAmount")
+          .value(trade.tradeInfo.endAmount)
+          .name("currency")
+          .value(trade.tradeInfo.currency)
+          .endObject();
+    }
+    json.endArray()
+        .name("nextCursor")
+        .value(
+            page.lastContractId == null
+                ? null
+                : Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString(page.lastContractId.getBytes(StandardCharsets.UTF_8)))
+        .endObject();
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    return new ControlServer.ControlResult(200, json.toString());
+  }
+
   @Override
-  public Stream<CommandsAndPendingSet> process(LedgerViewFlowable.LedgerView<Template> ledgerView) {
+  Stream<CommandsAndPendingSet> afterEvents(ActiveContracts contracts) {
 
-    logStatus(ledgerView);
-    updateTradeState(ledgerView);
+    logStatus(contracts);
 
     return Stream.of(
-            ledgerView.getContracts(ccpTemplateId).entrySet().stream().map(this::saveCcpContractId),
-            ledgerView.getContracts(inviteClearingHouseTemplateId).entrySet().stream()
-                .map(this::acceptCcpInvite),
-            startSettlementFromSentinel(ledgerView),
-            createNettingGroups(ledgerView),
-            ledgerView.getContracts(nettingGroupTemplateId).entrySet().stream()
-                .map(this::netTrades),
-            ledgerView.getContracts(netObligationTemplateId).entrySet().stream()
-                .map(this::createDvP),
-            ledgerView.getContracts(allocatedDvpTemplateId).entrySet().stream()
-                .map(this::settleDvp),
-            allocateSecurities(ledgerView),
-            finishSettlement(ledgerView))
+            startSettlementFromSentinel(contracts),
+            createNettingGroups(contracts),
+            netTrades(contracts),
+            createDvPs(contracts),
+            allocateSecurities(contracts),
+            settleDvps(contracts),
+            finishSettlement(contracts),
+            compactLots(contracts))
         .flatMap(s -> s);
   }
 
   /**
    * Provide status messagaes to stdout
    *
-   * @param ledgerView - the stable ledger view
+   * @param contracts - the active contracts
    */
-  private void logStatus(LedgerViewFlowable.LedgerView<Template> ledgerView) {
+  private void logStatus(ActiveContracts contracts) {
 
-    if (!settlementInProgress) {
+    if (cycles.isEmpty()) {
       // Count trades until settlement starts
-      int thisTradeCount = ledgerView.getContracts(tradeTemplateId).size();
+      int thisTradeCount = contracts.getContracts(tradeTemplateId).size();
       if ((tradeCount < thisTradeCount && thisTradeCount > 0 && (thisTradeCount % 10) == 0)) {
         logMessage(String.format("%d trades received...", thisTradeCount));
       }
@@ -167,20 +621,6 @@ public class ClearingHouseBot extends RepoMarketBot {
     }
   }
 
-  private void updateTradeState(LedgerViewFlowable.LedgerView<Template> ledgerView) {
-    tradesPerDate = new ConcurrentHashMap<>();
-    ledgerView
-        .getContracts(tradeTemplateId)
-        .entrySet()
-        .forEach(
-            e ->
-                tradesPerDate
-                    .computeIfAbsent(
-                        toLocalDate(((Trade) (e.getValue())).tradeInfo.settlementDate),
-                        k -> new HashSet<>())
-                    .add(e));
-  }
-
   /**
    * An invite to the CCP has been received - accept it
    *
@@ -190,6 +630,10 @@ public class ClearingHouseBot extends RepoMarketBot {
    */
   private CommandsAndPendingSet acceptCcpInvite(Map.Entry<String, Template> entry) {
 
+    if (!partition.isCoordinator()) {
+      return CommandsAndPendingSet.empty; // Accepted by partition 0
+    }
+
     log.debug("{} accept invitation, contractId={}", getParty(), entry.getKey());
 
     String contractId = entry.getKey();
@@ -223,217 +667,393 @@ public class ClearingHouseBot extends RepoMarketBot {
   }
 
   /**
-   * A trade has been created - novate it
+   * Trades are ready to settle - novate them. All the trades are novated by a single command
    *
-   * @param entry - an entry containing the contractId and the contract (A {@link Trade})
-   * @return a command set novating the Trade
+   * @param cycle - the settlement cycle of the trades
+   * @param batch - entries containing the contractId and the contract (A {@link Trade})
+   * @return a command set novating the Trades
    */
-  private CommandsAndPendingSet novateTrade(Map.Entry<String, Template> entry) {
+  private CommandsAndPendingSet novateTrades(
+      SettlementCycle cycle, List<Map.Entry<String, Template>> batch) {
 
-    assert (entry.getValue().getClass() == Trade.class);
+    List<Command> commands = new ArrayList<>(batch.size());
+    List<String> contractIds = new ArrayList<>(batch.size());
 
-    Trade thisTrade = (Trade) entry.getValue();
-    String contractId = entry.getKey();
+    for (Map.Entry<String, Template> entry : batch) {
 
-    log.debug("novate trade, tradeId={}, contractId={}", thisTrade.tradeInfo.tradeId, contractId);
+      assert (entry.getValue().getClass() == Trade.class);
 
-    tradesNovatedCount++;
+      Trade thisTrade = (Trade) entry.getValue();
+      String contractId = entry.getKey();
 
-    return newCommandAndPendingSet(
-        TRADE_INJECTION_WORKFLOW_ID,
-        Collections.singletonList(newExercise(tradeTemplateId, contractId, "Novate")),
-        HashTreePMap.singleton(tradeTemplateId, HashTreePSet.singleton(contractId)));
+      log.debug("novate trade, tradeId={}, contractId={}", thisTrade.tradeInfo.tradeId, contractId);
+
+      commands.add(newExercise(tradeTemplateId, contractId, "Novate"));
+      contractIds.add(contractId);
+    }
+
+    cycle.tradesNovated(batch.size());
+
+    CommandsAndPendingSet cps =
+        newCommandAndPendingSet(
+            TRADE_INJECTION_WORKFLOW_ID,
+            commands,
+            HashTreePMap.singleton(tradeTemplateId, HashTreePSet.from(contractIds)));
+
+    // A failed batch's trades are never novated, so the cycle no longer waits for them. A command
+    // that merely times out may yet complete, so it is still waited for
+    getSubmitter()
+        .track(cps.getSubmitCommandsRequest().getCommandId())
+        .whenComplete(
+            (latencyNanos, e) -> {
+              if (e != null && !(e instanceof TimeoutException)) {
+                cycle.novationFailed(batch.size());
+              }
+            });
+    return cps;
   }
 
   /**
-   * Initiate netting by sentinel. Clear out any previous asset state, and start settlement by
-   * novating all trades for the given settlement date
+   * Initiate netting by sentinel. Start settlement of the date of each sentinel, by novating all
+   * trades for the date, unless the date is already settling. A sentinel is archived once its date
+   * has settled, or at once if there are no trades to settle.
    *
-   * @param ledgerView - the ledger state
+   * @param contracts - the active contracts
    * @return a CommandsAndPendingSet
    */
-  private Stream<CommandsAndPendingSet> startSettlementFromSentinel(
-      LedgerViewFlowable.LedgerView<Template> ledgerView) {
-
-    Stream<CommandsAndPendingSet> commandStream = Stream.empty();
+  private Stream<CommandsAndPendingSet> startSettlementFromSentinel(ActiveContracts contracts) {
 
-    if (ledgerView.getContracts(initiateSettlementControlTemplateId).size() > 0
-        && !settlementInProgress) {
+    List<Stream<CommandsAndPendingSet>> commandStreams = new ArrayList<>();
 
-      InitiateSettlementControl sentinel =
-          (InitiateSettlementControl)
-              ledgerView
-                  .getContracts(initiateSettlementControlTemplateId)
-                  .values()
-                  .iterator()
-                  .next();
+    for (Map.Entry<String, Template> sentinel :
+        contracts.getContracts(initiateSettlementControlTemplateId).entrySet()) {
+      LocalDate date =
+          toLocalDate(((InitiateSettlementControl) sentinel.getValue()).settlementDate);
+      if (cycles.containsKey(date) || completedCycles.containsKey(date)) {
+        continue; // Settling, the sentinel is archived when the cycle completes
+      }
 
-      Optional<Stream<CommandsAndPendingSet>> optionalCommandStream =
-          startSettlement(toLocalDate(sentinel.settlementDate));
+      Optional<Stream<CommandsAndPendingSet>> optionalCommandStream = startSettlement(date);
 
+      if (!optionalCommandStream.isPresent() && partition.isPartitioned()) {
+        // Nothing to settle in this partition, for the coordinator to archive the sentinel
+        completedCycles.put(date, new PartitionCoordinator.CycleSummary(0, 0));
+        continue;
+      }
       if (!optionalCommandStream.isPresent()) {
-        logMessage(String.format("No trades to settle on %s", settlementDate.toString()));
+        logMessage(String.format("No trades to settle on %s", date.toString()));
       }
 
-      commandStream =
-          optionalCommandStream.orElse(
-              ledgerView.getContracts(initiateSettlementControlTemplateId).entrySet().stream()
-                  .map(
-                      e ->
-                          newCommandAndPendingSet(
-                              SETTLEMENT_WORKFLOW_ID,
-                              Collections.singletonList(
-                                  newExercise(
-                                      initiateSettlementControlTemplateId,
-                                      e.getKey(),
-                                      "ArchiveInitiateSettlementControl")),
-                              HashTreePMap.singleton(
-                                  initiateSettlementControlTemplateId,
-                                  HashTreePSet.singleton(e.getKey())))));
+      commandStreams.add(
+          optionalCommandStream.orElse(Stream.of(archiveSentinel(sentinel.getKey()))));
     }
 
-    return commandStream;
+    return commandStreams.stream().flatMap(s -> s);
+  }
+
+  private CommandsAndPendingSet archiveSentinel(String contractId) {
+    return newCommandAndPendingSet(
+        SETTLEMENT_WORKFLOW_ID,
+        Collections.singletonList(
+            newExercise(
+                initiateSettlementControlTemplateId,
+                contractId,
+                "ArchiveInitiateSettlementControl")),
+        HashTreePMap.singleton(
+            initiateSettlementControlTemplateId, HashTreePSet.singleton(contractId)));
   }
 
+  /**
+   * Start a settlement cycle for a date, unless one is already in progress.
+   *
+   * @param sdate - the settlement date
+   * @return the commands novating the date's trades, or empty if there are none, or the date is
+   *     already settling
+   */
   private Optional<Stream<CommandsAndPendingSet>> startSettlement(LocalDate sdate) {
 
     Optional<Stream<CommandsAndPendingSet>> maybeCommandStream = Optional.empty();
 
-    Set<Map.Entry<String, Template>> trades = tradesPerDate.getOrDefault(sdate, new HashSet<>());
+    // Take a copy, as the index continues to change while the trades are novated
+    List<Map.Entry<String, Template>> trades =
+        new ArrayList<>(tradesPerDate.getTrades(sdate).entrySet());
 
     if (!trades.isEmpty()) {
 
-      settlementDate = sdate;
-      settlementInProgress = true;
+      SettlementCycle cycle = new SettlementCycle(sdate, getSettledDvpCount(sdate));
+      if (cycles.putIfAbsent(sdate, cycle) != null) {
+        return maybeCommandStream;
+      }
 
       logMessage(
           String.format(
               "initiating settlement for %d trades, settlementDate=%s",
-              trades.size(), settlementDate.toString()));
+              trades.size(), sdate.toString()));
 
-      log.debug(
-          "settlement initiated: settlementDate={},tradeCount={}", settlementDate, trades.size());
+      log.debug("settlement initiated: settlementDate={},tradeCount={}", sdate, trades.size());
 
       // Initiate by novating all eligible trades
-      maybeCommandStream = Optional.of(trades.stream().map(this::novateTrade));
+      maybeCommandStream =
+          Optional.of(
+              batches(trades, novationBatchSize).map(batch -> novateTrades(cycle, batch)));
     }
 
     return maybeCommandStream;
   }
 
   /**
-   * Perform netting by waiting for all novated trades and creating netting groups.
+   * Perform netting by waiting for all novated trades of a settlement cycle and creating netting
+   * groups.
    *
-   * <p>Group all novated trades by their netting group key, then pass all these lists (a list of
-   * lists) to the 'FormNettingGroups' choice. This creates all netting groups.
+   * <p>Group the cycle's novated trades by their netting group key, then pass these lists (a list
+   * of lists) to the 'FormNettingGroups' choice. The lists are split into chunks of at most
+   * nettingChunkSize groups, each formed by a separate command, so that no single transaction
+   * grows with the number of trades settling.
    *
-   * <p>The process is triggered when all trades have been novated - that is, the count of
-   * NovatedTrades is double the teh count of trades novated
+   * <p>The process is triggered for each cycle when all its trades have been novated - that is,
+   * the count of the date's NovatedTrades is double the count of trades novated
    *
-   * @param ledgerView - the current view of the ledger
-   * @return a Stream of CommandsAndPendingSets that execute teh 'FromNettingGroups' choice
+   * @param contracts - the active contracts
+   * @return a Stream of CommandsAndPendingSets that execute the 'FormNettingGroups' choice
    */
-  private Stream<CommandsAndPendingSet> createNettingGroups(
-      LedgerViewFlowable.LedgerView<Template> ledgerView) {
+  private Stream<CommandsAndPendingSet> createNettingGroups(ActiveContracts contracts) {
+
+    List<Stream<CommandsAndPendingSet>> commandStreams = new ArrayList<>();
+
+    for (SettlementCycle cycle : cycles.values()) {
+      NettingProgress nettingProgress = cycle.getNettingProgress();
+
+      if (cycle.isNovationFailed()) {
+        // Nothing was novated. Its sentinel, if any, starts the cycle again
+        logMessage(String.format("novation failed for %s", cycle.settlementDate));
+        cycles.remove(cycle.settlementDate);
+      } else if (cycle.isReadyToNet()) {
+        log.debug(
+            "netting started for {}:  netting trades, count = {}",
+            cycle.settlementDate,
+            2 * cycle.getTradesNovatedCount());
+
+        logMessage(String.format("netting trades for %s...", cycle.settlementDate));
+
+        /*
+         * Group the novated trades by their netting key - this forms them into lists of
+         * ContractIds that can be netted i.e trades of the same settlement date, participant,
+         * cusip and currency. The lists are split into chunks that are each formed by a separate
+         * command
+         */
+        nettingProgress = cycle.startNetting(nettingChunkSize);
+
+        log.debug(
+            "netting {} groups in {} chunks",
+            nettingProgress.getGroupCount(),
+            nettingProgress.getChunks().size());
+
+        commandStreams.add(nettingProgress.getChunks().stream().map(this::formNettingGroups));
+      } else if (nettingProgress != null) {
+        // Resubmit any chunks whose command has failed
+        commandStreams.add(
+            nettingProgress.takeFailedChunks().stream().map(this::formNettingGroups));
+      }
+    }
+    return commandStreams.stream().flatMap(s -> s);
+  }
 
-    int novatedTradeCount = ledgerView.getContracts(novatedTradeTemplateId).size();
-    log.trace(
-        "Create netting groups: novatedTradeCount={}, tradeNovatedCount={}",
-        novatedTradeCount,
-        tradesNovatedCount);
+  /**
+   * Build the command forming the netting groups of a chunk. This transforms the lists of novated
+   * trade ContractIds into the right form of argument to the FormNettingGroups choice, a DamlList
+   * of DamlLists of ContractIds (Values).
+   *
+   * @param chunk - the chunk of groups to form
+   * @return a command set exercising 'FormNettingGroups'
+   */
+  private CommandsAndPendingSet formNettingGroups(NettingProgress.Chunk chunk) {
 
-    CommandsAndPendingSet commands = CommandsAndPendingSet.empty;
+    log.debug("form netting groups: chunk={}, groups={}", chunk.index, chunk.groups.size());
 
-    if (!nettingInProgress
-        && novatedTradeCount > 0
-        && novatedTradeCount == (2 * tradesNovatedCount)) {
+    List<Value> groupsList =
+        chunk.groups.stream()
+            .map(ids -> ids.stream().<Value>map(ContractId::new).collect(Collectors.toList()))
+            .map(DamlList::new)
+            .collect(Collectors.toList());
 
-      log.debug(
-          "netting started for {}:  netting trades, count = {}", settlementDate, novatedTradeCount);
-
-      nettingInProgress = true; // Only start netting once
-      logMessage("netting trades...");
-
-      /*
-       * Filter  the novated trades by settlement date, then group by their domain key - this forms them into
-       * lists that can be netted i.e trades of the same settlement date, participant, cusip and currency
-       */
-      Map<String, List<Map.Entry<String, Template>>> groups =
-          ledgerView.getContracts(novatedTradeTemplateId).entrySet().stream()
-              .collect(Collectors.groupingBy(entry -> getNovatedTradeDomainKey(entry.getValue())));
-
-      /*
-       * Turn the groups into the right form of an argument to the FormNettingGroups choice. This transforms
-       * a Map of ContractId,DomainObjects (NovatedTrades) tuples into a DamlList of ContractIds (Values),
-       * keyed by the domain key
-       */
-      List<Value> tradeGroups =
-          groups.entrySet().stream()
-              .map(
-                  entry ->
-                      entry.getValue().stream()
-                          .<Value>map(e -> new ContractId(e.getKey()))
-                          .collect(Collectors.toList()))
-              .map(DamlList::new)
-              .collect(Collectors.toList());
-
-      dvpCount = tradeGroups.size();
-
-      /*
-       * ... and build the exercise command and pending set.
-       */
-      commands =
-          newCommandAndPendingSet(
-              SETTLEMENT_WORKFLOW_ID,
-              Collections.singletonList(
-                  newExercise(
-                      ccpTemplateId,
-                      ccpContractId,
-                      "FormNettingGroups",
-                      new Record.Field("groupsList", new DamlList(tradeGroups)))),
-              HashTreePMap.empty());
+    /*
+     * The novated trades are pending until the groups are formed. If the command fails they
+     * reappear, and the chunk is submitted again.
+     */
+    Set<String> tradeIds = new HashSet<>();
+    chunk.groups.forEach(tradeIds::addAll);
+
+    return newCommandAndPendingSet(
+        SETTLEMENT_WORKFLOW_ID,
+        Collections.singletonList(
+            newExercise(
+                ccpTemplateId,
+                ccpContractId,
+                "FormNettingGroups",
+                new Record.Field("groupsList", new DamlList(groupsList)))),
+        HashTreePMap.singleton(novatedTradeTemplateId, HashTreePSet.from(tradeIds)));
+  }
+
+  private void nettingGroupFormed(String contractId, Template contract) {
+    List<String> tradeIds = NettingProgress.tradeIds(contract);
+    for (SettlementCycle cycle : cycles.values()) {
+      NettingProgress nettingProgress = cycle.getNettingProgress();
+      NettingProgress.Chunk chunk =
+          nettingProgress == null ? null : nettingProgress.groupFormed(tradeIds);
+      if (chunk != null) {
+        log.debug("netting groups formed: chunk={}, groups={}", chunk.index, chunk.groups.size());
+        if (nettingProgress.isComplete()) {
+          logMessage(
+              String.format(
+                  "%d netting groups formed for %s",
+                  nettingProgress.getGroupCount(), cycle.settlementDate));
+        }
+        return;
+      }
+    }
+  }
+
+  private void novatedTradeCreated(String contractId, Template contract) {
+    NovatedTrade novatedTrade = (NovatedTrade) contract;
+    LocalDate date = toLocalDate(novatedTrade.tradeInfo.settlementDate);
+    SettlementCycle cycle = cycles.get(date);
+    if (cycle != null && partition.owns(novatedTrade.tradeInfo.cusip)) {
+      cycle.novatedTradeCreated(contractId, contract);
+    }
+
+    if (partition.isPartitioned()) {
+      if (novatedTradeCusips.put(contractId, novatedTrade.tradeInfo.cusip) == null) {
+        novatedTradesPerDate.computeIfAbsent(date, k -> new ArrayList<>()).add(contractId);
+      }
+      String groupId = unresolvedGroupIds.remove(contractId);
+      if (groupId != null) {
+        queueNettingGroup(groupId, unresolvedGroups.remove(groupId));
+      }
+    }
+  }
+
+  /**
+   * Queue a netting group for netting if it is of one of this partition's CUSIPs, which is that of
+   * its first NovatedTrade. A group is only ever formed of the trades of one CUSIP.
+   */
+  private void queueNettingGroup(String contractId, Template nettingGroup) {
+    if (!partition.isPartitioned()) {
+      nettingGroups.created(contractId, nettingGroup);
+      return;
+    }
+    List<String> tradeIds = NettingProgress.tradeIds(nettingGroup);
+    if (tradeIds.isEmpty()) {
+      return;
+    }
+    String cusip = novatedTradeCusips.get(tradeIds.get(0));
+    if (cusip == null) {
+      unresolvedGroups.put(contractId, nettingGroup);
+      unresolvedGroupIds.put(tradeIds.get(0), contractId);
+    } else if (partition.owns(cusip)) {
+      nettingGroups.created(contractId, nettingGroup);
     }
-    return Stream.of(commands);
   }
 
-  private String getNovatedTradeDomainKey(Template t) {
-    NovatedTrade novatedTrade = (NovatedTrade) t;
-    return String.format(
-        "%s:%s:%s:%s",
-        novatedTrade.tradeInfo.settlementDate.toString(),
-        novatedTrade.participantId,
-        novatedTrade.tradeInfo.cusip,
-        novatedTrade.tradeInfo.currency);
+  /**
+   * Exercise a choice on each active contract of a template, packing the exercises into commands
+   * of the sizer's batch size, read again for each command. Each command's outcome adjusts the size
+   * of the batches taken after it completes.
+   *
+   * @param contracts - the contracts to exercise, of this partition's CUSIPs
+   * @param templateId - the template of the contracts
+   * @param exercise - the exercise for a contract, given its contractId and contract
+   * @param sizer - the batch sizer of the stage
+   * @param workflowId - the workflowId of the commands
+   * @return a command per batch
+   */
+  private Stream<CommandsAndPendingSet> exerciseInBatches(
+      ContractQueue contracts,
+      Identifier templateId,
+      Function<Map.Entry<String, Template>, Command> exercise,
+      AdaptiveBatchSizer sizer,
+      String workflowId) {
+
+    List<Map.Entry<String, Template>> entries =
+        new ArrayList<>(contracts.getContracts().entrySet());
+    if (entries.isEmpty()) {
+      return Stream.empty();
+    }
+
+    log.debug(
+        "exercise in batches: template={}, count={}, batchSize={}",
+        identifierToString(templateId),
+        entries.size(),
+        sizer.getSize());
+
+    return batches(entries, sizer::getSize)
+        .map(
+            batch ->
+                sized(
+                    sizer,
+                    newCommandAndPendingSet(
+                        workflowId,
+                        batch.stream().map(exercise).collect(Collectors.toList()),
+                        HashTreePMap.singleton(
+                            templateId,
+                            HashTreePSet.from(
+                                batch.stream()
+                                    .map(Map.Entry::getKey)
+                                    .collect(Collectors.toList()))))));
   }
 
   /**
    * Net out trades. A NettingGroup has been created for all nettable trades - net them out and form
-   * a NetObligationRequest for confirmation by the particiant
+   * a NetObligationRequest for confirmation by the particiant. The groups waiting are netted in
+   * batches.
    *
-   * @param entry - a NettingGroup contractId and value
-   * @return - a command set to net the trades
+   * @param contracts - the active contracts
+   * @return - a command per batch of groups, to net their trades
    */
-  private CommandsAndPendingSet netTrades(Map.Entry<String, Template> entry) {
+  private Stream<CommandsAndPendingSet> netTrades(ActiveContracts contracts) {
+    return exerciseInBatches(
+        nettingGroups,
+        nettingGroupTemplateId,
+        this::netTrades,
+        netTradesBatches,
+        NETTING_WORKFLOW_ID);
+  }
 
-    NettingGroup nettingGroup = (NettingGroup) entry.getValue();
+  private Command netTrades(Map.Entry<String, Template> entry) {
 
     String contractId = entry.getKey();
 
-    log.debug("net trades, tradeIds={}, contractId={}", nettingGroup.contractList, contractId);
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "net trades, tradeIds={}, contractId={}",
+          NettingProgress.tradeIds(entry.getValue()),
+          contractId);
+    }
 
-    return newCommandAndPendingSet(
-        NETTING_WORKFLOW_ID,
-        Collections.singletonList(newExercise(nettingGroupTemplateId, contractId, "NetTrades")),
-        HashTreePMap.singleton(nettingGroupTemplateId, HashTreePSet.singleton(contractId)));
+    return newExercise(nettingGroupTemplateId, contractId, "NetTrades");
+  }
+
+  /**
+   * Create DvPs from final NetObligations, in batches.
+   *
+   * @param contracts - the active contracts
+   * @return - a command per batch of NetObligations
+   */
+  private Stream<CommandsAndPendingSet> createDvPs(ActiveContracts contracts) {
+    return exerciseInBatches(
+        netObligations,
+        netObligationTemplateId,
+        this::createDvP,
+        createDvpBatches,
+        SETTLEMENT_WORKFLOW_ID);
   }
 
   /**
    * Create a DvP from a final NetObligation.
    *
    * @param entry - NetObligation and contractId
-   * @return - CommandsAndPendingSet
+   * @return - the exercise creating the DvP
    */
-  private CommandsAndPendingSet createDvP(Map.Entry<String, Template> entry) {
+  private Command createDvP(Map.Entry<String, Template> entry) {
 
     NetObligation netObligation = (NetObligation) entry.getValue();
 
@@ -451,29 +1071,38 @@ public class ClearingHouseBot extends RepoMarketBot {
     String choice =
         netObligation.payer.equals(netObligation.ccp) ? "CreateBuyDvP" : "CreateSellDvP";
 
-    return newCommandAndPendingSet(
-        SETTLEMENT_WORKFLOW_ID,
-        Collections.singletonList(newExercise(netObligationTemplateId, contractId, choice)),
-        HashTreePMap.singleton(netObligationTemplateId, HashTreePSet.singleton(contractId)));
+    return newExercise(netObligationTemplateId, contractId, choice);
   }
 
   /**
-   * A fully-allocated Dvp has been created - settle it.
+   * Fully-allocated DvPs have been created - settle them, in batches.
+   *
+   * @param contracts - the active contracts
+   * @return - a command per batch of DvPs
+   */
+  private Stream<CommandsAndPendingSet> settleDvps(ActiveContracts contracts) {
+    return exerciseInBatches(
+        allocatedDvps,
+        allocatedDvpTemplateId,
+        this::settleDvp,
+        settleDvpBatches,
+        SETTLEMENT_WORKFLOW_ID);
+  }
+
+  /**
+   * Settle a fully-allocated DvP.
    *
    * @param entry - a DvP entry
-   * @return = CommandsAndPendingSet
+   * @return - the exercise settling the DvP
    */
-  private CommandsAndPendingSet settleDvp(Map.Entry<String, Template> entry) {
+  private Command settleDvp(Map.Entry<String, Template> entry) {
 
     AllocatedDvP dvp = (AllocatedDvP) entry.getValue();
     String contractId = entry.getKey();
 
     log.debug("settle dvp, dvpId={}, payer={}, receiver={}", contractId, dvp.payer, dvp.receiver);
 
-    return newCommandAndPendingSet(
-        SETTLEMENT_WORKFLOW_ID,
-        Collections.singletonList(newExercise(allocatedDvpTemplateId, contractId, "Settle")),
-        HashTreePMap.singleton(allocatedDvpTemplateId, HashTreePSet.singleton(contractId)));
+    return newExercise(allocatedDvpTemplateId, contractId, "Settle");
   }
 
   private class AllocationResult {
@@ -499,6 +1128,16 @@ public class ClearingHouseBot extends RepoMarketBot {
       return !commands.isEmpty();
     }
 
+    AllocationResult plus(AllocationResult other) {
+      if (!other.isAllocated()) {
+        return this;
+      }
+      List<Command> allCommands = new ArrayList<>(commands);
+      allCommands.addAll(other.commands);
+      return new AllocationResult(
+          allCommands, dvpIds.plusAll(other.dvpIds), securityIds.plusAll(other.securityIds));
+    }
+
     CommandsAndPendingSet asCommands() {
       return newCommandAndPendingSet(
           SETTLEMENT_WORKFLOW_ID,
@@ -511,47 +1150,32 @@ public class ClearingHouseBot extends RepoMarketBot {
    * A Cash-allocated DvP has been created - allocate any securities available.
    *
    * @param entry - a CashAllocatedDvp entry
-   * @param availableSecurities - securities available for settlement indexed by contractId
-   * @return an AllocationResult
+   * @return an AllocationResult, reserving the allocated securities in the inventory
    */
-  private AllocationResult allocateSecurity(
-      Map.Entry<String, Template> entry, Map<String, Security> availableSecurities) {
+  private AllocationResult allocateSecurity(Map.Entry<String, Template> entry) {
 
     AllocationResult result = new AllocationResult();
     String dvpId = entry.getKey();
     CashAllocatedDvP dvp = (CashAllocatedDvP) entry.getValue();
 
-    // If we have enough securities to settle....
-
-    BigDecimal sum = BigDecimal.ZERO;
-    List<String> allocated = new ArrayList<>();
-
-    for (Iterator<Map.Entry<String, Security>> iter = availableSecurities.entrySet().iterator();
-        iter.hasNext() && sum.compareTo(dvp.quantity) < 0; ) {
-      Map.Entry<String, Security> e = iter.next();
-      String securityId = e.getKey();
-      Security s = e.getValue();
-      if (s.cusip.equals(dvp.cusip)) {
-        sum = sum.add(s.collateralQuantity);
-        allocated.add(securityId);
-      }
-    }
-
     log.trace(
-        "allocate securities: cusip={}, collateralQuantity={}, security sum={}",
+        "allocate securities: cusip={}, collateralQuantity={}, available={}",
         dvp.cusip,
         dvp.quantity,
-        sum);
+        securityInventory.availableQuantity(dvp.cusip));
+
+    // If we have enough securities to settle....
+
+    Optional<List<String>> reserved = securityInventory.reserve(dvp.cusip, dvp.quantity);
 
-    if (sum.compareTo(dvp.quantity) >= 0) {
-      // We have enough securites to allocate
+    if (reserved.isPresent()) {
+      List<String> allocated = reserved.get();
 
       log.debug(
-          "allocate securities: dvpId={} cusip={}, quantity={}, security sum={}, count={}",
+          "allocate securities: dvpId={} cusip={}, quantity={}, count={}",
           dvpId,
           dvp.cusip,
           dvp.quantity,
-          sum,
           allocated.size());
 
       DamlList arg =
@@ -572,110 +1196,166 @@ public class ClearingHouseBot extends RepoMarketBot {
   }
 
   /**
-   * Allocate some (buy side) DvP. Try allocation on each CashAllocatedDvp until one succeeds
+   * Allocate (buy side) DvPs. Every CashAllocatedDvp of this partition's CUSIPs that can be covered
+   * from the security inventory is allocated, and the allocations are sent as a single command set.
+   * Securities reserved for one DvP are not offered to the next, so no security is allocated twice.
    *
-   * @param ledgerView - the ledger view containing the DvPs
+   * @param contracts - the active contracts
    * @return A command stream
    */
-  private Stream<CommandsAndPendingSet> allocateSecurities(
-      LedgerViewFlowable.LedgerView<Template> ledgerView) {
-
-    Map<String, Security> availableSecurities = new HashMap<>();
-    ledgerView.getContracts(securityTemplateId).entrySet().stream()
-        .filter(e -> ((Security) e.getValue()).owner.equals(getParty()))
-        .forEach(e -> availableSecurities.put(e.getKey(), (Security) e.getValue()));
+  private Stream<CommandsAndPendingSet> allocateSecurities(ActiveContracts contracts) {
 
     AllocationResult result = new AllocationResult();
-    for (Iterator<Map.Entry<String, Template>> iter =
-            ledgerView.getContracts(cashAllocatedDvpTemplateId).entrySet().iterator();
-        iter.hasNext() && !result.isAllocated(); ) {
-      result = allocateSecurity(iter.next(), availableSecurities);
+    if (securityInventory.size() > 0) {
+      for (Map.Entry<String, Template> entry : cashAllocatedDvps.getContracts().entrySet()) {
+        result = result.plus(allocateSecurity(entry));
+      }
+    }
+
+    if (result.isAllocated()) {
+      log.debug("allocate securities: allocating {} DvPs", result.dvpIds.size());
     }
 
     return result.isAllocated() ? Stream.of(result.asCommands()) : Stream.empty();
   }
 
   /**
-   * Complete the settlement cycle. Monitor the settled DvP count, and when it matches the expected
-   * count, reset the settlement state ready for a new cycle
+   * Compact fragmented lots. Settlement leaves the CCP with ever more Security and Cash lots, which
+   * grow the active contract set and the allocation of securities. Between settlement cycles, so
+   * as not to contend with allocations, the CCP's lots of each CUSIP, and of each currency, are
+   * merged in pairs while there are more than compactionThreshold of them. Only the owner of a lot
+   * can merge it, so the lots of other parties are left alone.
    *
-   * @param ledgerView - the current ledger view
-   * @return a command Stream
+   * <p>When partitioned, each partition compacts the Security lots of its own CUSIPs, and
+   * partition 0 compacts the Cash lots. The lots are counted per CUSIP and per currency as they are
+   * created and archived, so only the groups over the threshold are read here.
+   *
+   * @param contracts - the active contracts
+   * @return a command per batch of merges
    */
-  private Stream<CommandsAndPendingSet> finishSettlement(
-      LedgerViewFlowable.LedgerView<Template> ledgerView) {
+  private Stream<CommandsAndPendingSet> compactLots(ActiveContracts contracts) {
+    if (compactionThreshold == 0
+        || !cycles.isEmpty()
+        || securityLots.getFragmentedCount() + cashLots.getFragmentedCount() == 0) {
+      return Stream.empty();
+    }
 
-    Stream<CommandsAndPendingSet> commandStream = Stream.empty();
-    long settledDvpCount =
-        ledgerView.getContracts(settledDvpTemplateId).entrySet().stream()
-            .filter(
-                e -> toLocalDate(((SettledDvP) e.getValue()).settlementDate).equals(settlementDate))
-            .count();
+    List<LotCompaction.Merge> securityMerges = securityLots.merges();
+    List<LotCompaction.Merge> cashMerges = cashLots.merges();
 
-    log.trace(
-        "finish settlement: nettingInProgress={}, dvpCount={}, settledDvps.count()={}",
-        nettingInProgress,
-        dvpCount,
-        settledDvpCount);
-
-    if (nettingInProgress && settledDvpCount == dvpCount) {
-
-      // Print a final message and clear the dvp record, then rmeove any sentinel contract
-
-      commandStream =
-          ledgerView.getContracts(initiateSettlementControlTemplateId).entrySet().stream()
-              .map(
-                  e ->
-                      newCommandAndPendingSet(
-                          SETTLEMENT_WORKFLOW_ID,
-                          Collections.singletonList(
-                              newExercise(
-                                  initiateSettlementControlTemplateId,
-                                  e.getKey(),
-                                  "ArchiveInitiateSettlementControl")),
-                          HashTreePMap.singleton(
-                              initiateSettlementControlTemplateId,
-                              HashTreePSet.singleton(e.getKey()))));
+    log.debug(
+        "compact lots: securityMerges={}, cashMerges={}", securityMerges.size(), cashMerges.size());
 
-      logMessage(
-          String.format(
-              "Settlement complete, %d trades and %d DvP's processed, %d trades remaining.",
-              tradesNovatedCount,
-              settledDvpCount,
-              ledgerView.getContracts(tradeTemplateId).size()));
+    return Stream.concat(
+        mergeLots(securityTemplateId, "MergeSecurity", securityMerges),
+        mergeLots(cashTemplateId, "MergeCash", cashMerges));
+  }
+
+  /**
+   * @param templateId - the template of the lots
+   * @param choice - the template's merge choice
+   * @param merges - the merges of pairs of lots
+   * @return a command per batch of merges, with both lots of each merge pending
+   */
+  private Stream<CommandsAndPendingSet> mergeLots(
+      Identifier templateId, String choice, List<LotCompaction.Merge> merges) {
+    return batches(merges, maxBatchSize)
+        .map(
+            batch -> {
+              List<Command> commands = new ArrayList<>(batch.size());
+              Set<String> lotIds = new HashSet<>();
+              for (LotCompaction.Merge merge : batch) {
+                commands.add(
+                    newExercise(
+                        templateId,
+                        merge.lotId,
+                        choice,
+                        new Record.Field("thatCid", new ContractId(merge.intoId))));
+                lotIds.add(merge.lotId);
+                lotIds.add(merge.intoId);
+              }
+              return newCommandAndPendingSet(
+                  COMPACTION_WORKFLOW_ID,
+                  commands,
+                  HashTreePMap.singleton(templateId, HashTreePSet.from(lotIds)));
+            });
+  }
 
-      // Reset settlement state so we can restart
-      settlementDate = null;
-      settlementInProgress = false;
-      nettingInProgress = false;
-      tradesNovatedCount = 0;
-      dvpCount = 0;
+  private void dvpSettled(Template contract) {
+    SettledDvP dvp = (SettledDvP) contract;
+    if (partition.owns(dvp.cusip)) {
+      settledDvpsPerDate
+          .computeIfAbsent(toLocalDate(dvp.settlementDate), k -> new AtomicInteger())
+          .incrementAndGet();
     }
-    return commandStream;
   }
 
-  @Override
-  public TransactionFilter getTransactionFilter() {
-    InclusiveFilter inclusiveFilter =
-        new InclusiveFilter(
-            new HashSet<>(
-                Arrays.asList(
-                    inviteClearingHouseTemplateId,
-                    ccpTemplateId,
-                    initiateSettlementControlTemplateId,
-                    tradeTemplateId,
-                    novatedTradeTemplateId,
-                    nettingGroupTemplateId,
-                    netObligationRequestTemplateId,
-                    netObligationTemplateId,
-                    dvpTemplateId,
-                    cashAllocatedDvpTemplateId,
-                    allocatedDvpTemplateId,
-                    settledDvpTemplateId,
-                    cashRequestTemplateId,
-                    cashTemplateId,
-                    securityTemplateId)));
-    Map<String, Filter> filter = Collections.singletonMap(getParty(), inclusiveFilter);
-    return new FiltersByParty(filter);
+  private int getSettledDvpCount(LocalDate date) {
+    AtomicInteger count = settledDvpsPerDate.get(date);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Complete settlement cycles. Monitor the settled DvP count of each cycle's date, and when it
+   * matches the expected count, archive the date's sentinels and end the cycle. The count is kept
+   * by settlement date as SettledDvP contracts are created, so the check does not depend on the
+   * ledger history.
+   *
+   * @param contracts - the active contracts
+   * @return a command Stream
+   */
+  private Stream<CommandsAndPendingSet> finishSettlement(ActiveContracts contracts) {
+
+    List<CommandsAndPendingSet> commands = new ArrayList<>();
+
+    for (SettlementCycle cycle : cycles.values()) {
+      int settledDvpCount = getSettledDvpCount(cycle.settlementDate);
+
+      log.trace(
+          "finish settlement: settlementDate={}, nettingStarted={}, settledDvps.count()={}",
+          cycle.settlementDate,
+          cycle.getNettingProgress() != null,
+          cycle.settledDvps(settledDvpCount));
+
+      if (cycle.isComplete(settledDvpCount) && partition.isPartitioned()) {
+
+        // Report the date settled, for the coordinator to archive the sentinel
+        completedCycles.put(
+            cycle.settlementDate,
+            new PartitionCoordinator.CycleSummary(
+                cycle.getTradesNovatedCount(), cycle.settledDvps(settledDvpCount)));
+        logMessage(
+            String.format(
+                "Settlement complete for %s in %s, %d trades and %d DvP's processed.",
+                cycle.settlementDate,
+                partition,
+                cycle.getTradesNovatedCount(),
+                cycle.settledDvps(settledDvpCount)));
+        cycles.remove(cycle.settlementDate);
+
+      } else if (cycle.isComplete(settledDvpCount)) {
+
+        // Print a final message, then remove the date's sentinel contracts
+        contracts.getContracts(initiateSettlementControlTemplateId).entrySet().stream()
+            .filter(
+                e ->
+                    toLocalDate(((InitiateSettlementControl) e.getValue()).settlementDate)
+                        .equals(cycle.settlementDate))
+            .map(e -> archiveSentinel(e.getKey()))
+            .forEach(commands::add);
+
+        logMessage(
+            String.format(
+                "Settlement complete for %s, %d trades and %d DvP's processed, %d trades"
+                    + " remaining.",
+                cycle.settlementDate,
+                cycle.getTradesNovatedCount(),
+                cycle.settledDvps(settledDvpCount),
+                contracts.getContracts(tradeTemplateId).size()));
+
+        cycles.remove(cycle.settlementDate);
+      }
+    }
+    return commands.stream();
   }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.CompletionStreamResponse;
+import com.daml.ledger.javaapi.data.LedgerOffset;
+import com.daml.ledger.javaapi.data.SubmitCommandsRequest;
+import com.daml.ledger.rxjava.DamlLedgerClient;
+import com.digitalasset.examples.repoTrading.util.LatencyHistogram;
+import com.digitalasset.ledger.api.v1.CompletionOuterClass.Completion;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Submits commands for a party without waiting for each one to complete. The outcome of each
+ * command is taken from the command completion stream and returned as a future.
+ *
+ * <p>At most a fixed number of commands are in flight at once - that is, submitted and not yet
+ * completed. Further submissions block the caller until a command completes, so a fast producer is
+ * held to the rate at which the ledger processes its commands.
+ *
+ * <p>The outcome of a command submitted by other means, such as the ledger view's wiring, can be
+ * tracked on the same completion stream, along with its latency. A tracked command is timed from
+ * its submission if it is submitted here, and otherwise from when it was tracked. It is taken as
+ * failed if it has not completed within {@link #TRACK_TIMEOUT_NANOS} of that time.
+ */
+class CommandSubmitter {
+
+  private static final Logger log = LoggerFactory.getLogger(CommandSubmitter.class);
+
+  static final long TRACK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** A command was rejected by the ledger */
+  static class CommandRejectedException extends RuntimeException {
+    CommandRejectedException(String commandId, int code, String message) {
+      super(String.format("command %s rejected, code=%d: %s", commandId, code, message));
+    }
+  }
+
+  /** A command tracked on the completion stream, timed from its submission */
+  private static class Tracked {
+    final CompletableFuture<Long> latency = new CompletableFuture<>();
+    volatile long submitTime;
+    volatile long deadline;
+
+    Tracked(long submitTime) {
+      submitted(submitTime);
+    }
+
+    void submitted(long time) {
+      submitTime = time;
+      deadline = time + TRACK_TIMEOUT_NANOS;
+    }
+  }
+
+  private final DamlLedgerClient client;
+  private final String party;
+  private final Semaphore window;
+  private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+  private final AtomicLong submittedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * @param client - the ledger client
+   * @param party - the submitting party
+   * @param maxInFlight - the maximum number of commands awaiting completion
+   */
+  CommandSubmitter(DamlLedgerClient client, String party, int maxInFlight) {
+    this.client = client;
+    this.party = party;
+    this.window = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Follow the completion stream from the current ledger end. This must be called before any
+   * command is submitted.
+   */
+  void start() {
+    LedgerOffset ledgerEnd = client.getTransactionsClient().getLedgerEnd().blockingGet();
+    client
+        .getCommandCompletionClient()
+        .completionStream(RepoTradingMain.APP_ID, ledgerEnd, Collections.singleton(party))
+        .subscribe(this::processCompletions, this::completionStreamFailed);
+  }
+
+  /**
+   * Submit a command, waiting first for a free slot in the in-flight window.
+   *
+   * @param request - the command to submit
+   * @return a future completed with the commandId when the command succeeds, or exceptionally
+   *     when it is rejected
+   */
+  CompletableFuture<String> submit(SubmitCommandsRequest request) {
+    CompletableFuture<String> result = new CompletableFuture<>();
+    try {
+      window.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    long submitTime = System.nanoTime();
+    result.whenComplete((c, e) -> latency.record(System.nanoTime() - submitTime));
+    submittedCount.incrementAndGet();
+
+    String commandId = request.getCommandId();
+    Tracked t = tracked.get(commandId);
+    if (t != null) {
+      t.submitted(submitTime); // Not while waiting for the window
+    }
+    inFlight.put(commandId, result);
+    log.debug("{} submits command id={}, in flight={}", party, commandId, inFlight.size());
+
+    client
+        .getCommandSubmissionClient()
+        .submit(
+            request.getWorkflowId(),
+            request.getApplicationId(),
+            commandId,
+            request.getParty(),
+            request.getLedgerEffectiveTime(),
+            request.getMaximumRecordTime(),
+            request.getCommands())
+        .subscribe(empty -> {}, e -> complete(commandId, e));
+    return result;
+  }
+
+  /**
+   * Track the outcome of a command, however it is submitted. This must be called before the command
+   * is submitted.
+   *
+   * @param commandId - the command's id
+   * @return a future completed with the command's latency in nanoseconds when it succeeds, or
+   *     exceptionally when it is rejected or does not complete in time
+   */
+  CompletableFuture<Long> track(String commandId) {
+    expireTracked();
+    Tracked t = new Tracked(System.nanoTime());
+    tracked.put(commandId, t);
+    return t.latency;
+  }
+
+  /** @return the number of commands submitted and not yet completed */
+  int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /** @return the number of commands submitted */
+  long getSubmittedCount() {
+    return submittedCount.get();
+  }
+
+  /** @return the number of commands rejected or failed on submission */
+  long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /** @return the time from submission to completion of each command, in nanoseconds */
+  LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  private void processCompletions(CompletionStreamResponse response) {
+    for (Completion completion : response.getCompletions()) {
+      int code = completion.getStatus().getCode();
+      complete(
+          completion.getCommandId(),
+          code == 0
+              ? null
+              : new CommandRejectedException(
+                  completion.getCommandId(), code, completion.getStatus().getMessage()));
+    }
+    expireTracked();
+  }
+
+  private void complete(String commandId, Throwable error) {
+    Tracked t = tracked.remove(commandId);
+    if (t != null) {
+      if (error == null) {
+        t.latency.complete(System.nanoTime() - t.submitTime);
+      } else {
+        t.latency.completeExceptionally(error);
+      }
+    }
+
+    CompletableFuture<String> result = inFlight.remove(commandId);
+    if (result == null) {
+      return; // Submitted by another process, or already failed on submission
+    }
+    window.release();
+    if (error == null) {
+      result.complete(commandId);
+    } else {
+      failedCount.incrementAndGet();
+      log.debug("{} command {} failed: {}", party, commandId, error.getMessage());
+      result.completeExceptionally(error);
+    }
+  }
+
+  private void completionStreamFailed(Throwable error) {
+    log.error("{} completion stream failed", party, error);
+    RepoTradingMain.logError(party, "completion stream failed: " + error.getMessage());
+    inFlight.keySet().forEach(commandId -> complete(commandId, error));
+    tracked.keySet().forEach(commandId -> complete(commandId, error));
+  }
+
+  /** Fail the tracked commands that have not completed in time */
+  private void expireTracked() {
+    long now = System.nanoTime();
+    tracked.forEach(
+        (commandId, t) -> {
+          if (now - t.deadline > 0 && tracked.remove(commandId, t)) {
+            t.latency.completeExceptionally(
+                new TimeoutException("command " + commandId + " did not complete in time"));
+          }
+        });
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.Template;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+import org.pcollections.PSet;
+
+/**
+ * The active contracts of an event driven bot, maintained from created and archived events.
+ *
+ * <p>As with the ledger view, contracts used by a submitted command are pending: they are hidden
+ * until they are archived, or returned if the command fails.
+ */
+class ContractStore implements RepoMarketBot.ActiveContracts {
+
+  private static class PendingContract {
+    final Identifier templateId;
+    final Template contract;
+
+    PendingContract(Identifier templateId, Template contract) {
+      this.templateId = templateId;
+      this.contract = contract;
+    }
+  }
+
+  private final Map<Identifier, PMap<String, Template>> active = new HashMap<>();
+  private final Map<String, PendingContract> pending = new HashMap<>();
+
+  @Override
+  public PMap<String, Template> getContracts(Identifier templateId) {
+    return active.getOrDefault(templateId, HashTreePMap.empty());
+  }
+
+  /** @return the number of contracts hidden by submitted commands */
+  int getPendingCount() {
+    return pending.size();
+  }
+
+  void created(Identifier templateId, String contractId, Template contract) {
+    active.put(templateId, getContracts(templateId).plus(contractId, contract));
+  }
+
+  /**
+   * @param templateId - the template of the archived contract
+   * @param contractId - the archived contract
+   * @return true if the contract was active, false if it was pending or unknown
+   */
+  boolean archived(Identifier templateId, String contractId) {
+    if (pending.remove(contractId) != null) {
+      return false;
+    }
+    PMap<String, Template> contracts = getContracts(templateId);
+    if (!contracts.containsKey(contractId)) {
+      return false;
+    }
+    active.put(templateId, contracts.minus(contractId));
+    return true;
+  }
+
+  /**
+   * Hide the contracts used by a submitted command.
+   *
+   * @param pendingSet - the contractIds used, by template
+   * @return the contracts hidden, as templateId and contractId pairs
+   */
+  List<Map.Entry<Identifier, String>> setPending(PMap<Identifier, PSet<String>> pendingSet) {
+    List<Map.Entry<Identifier, String>> hidden = new ArrayList<>();
+    for (Map.Entry<Identifier, PSet<String>> entry : pendingSet.entrySet()) {
+      PMap<String, Template> contracts = getContracts(entry.getKey());
+      for (String contractId : entry.getValue()) {
+        Template contract = contracts.get(contractId);
+        if (contract != null) {
+          pending.put(contractId, new PendingContract(entry.getKey(), contract));
+          hidden.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), contractId));
+        }
+      }
+      active.put(entry.getKey(), contracts.minusAll(entry.getValue()));
+    }
+    return hidden;
+  }
+
+  /**
+   * Return the contracts used by a failed command, where they have not since been archived.
+   *
+   * @param pendingSet - the contractIds used, by template
+   * @return the returned contracts, as templateId and (contractId, contract) pairs
+   */
+  List<Map.Entry<Identifier, Map.Entry<String, Template>>> unsetPending(
+      PMap<Identifier, PSet<String>> pendingSet) {
+    List<Map.Entry<Identifier, Map.Entry<String, Template>>> restored = new ArrayList<>();
+    for (PSet<String> contractIds : pendingSet.values()) {
+      for (String contractId : contractIds) {
+        PendingContract p = pending.remove(contractId);
+        if (p != null) {
+          created(p.templateId, contractId, p.contract);
+          restored.add(
+              new AbstractMap.SimpleImmutableEntry<>(
+                  p.templateId, new AbstractMap.SimpleImmutableEntry<>(contractId, p.contract)));
+        }
+      }
+    }
+    return restored;
+  }
+}
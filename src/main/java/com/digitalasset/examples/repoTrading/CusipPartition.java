@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+/**
+ * A hash partition of CUSIPs, owned by one of several clearing house workers. Netting keys, DvPs
+ * and security allocations are all per CUSIP, so each worker settles the CUSIPs of its partition
+ * independently of the others.
+ *
+ * <p>The hash is that of the CUSIP string, which is the same in every JVM, so all workers agree on
+ * the owner of each CUSIP.
+ *
+ * <p>Only the work is partitioned, not the ledger subscription. Every worker acts as the CCP party,
+ * and a transaction filter selects templates rather than CUSIPs, so each worker still receives,
+ * decodes and holds the contracts of every CUSIP. It filters them once as they arrive, keeping
+ * only its own in the queues of its settlement stages.
+ */
+final class CusipPartition {
+
+  /** The single partition of an unpartitioned clearing house */
+  static final CusipPartition ALL = new CusipPartition(0, 1);
+
+  final int index;
+  final int count;
+
+  /**
+   * @param index - the partition, from 0
+   * @param count - the number of partitions
+   */
+  CusipPartition(int index, int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException(
+          String.format("Partition %d of %d is out of range", index, count));
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  /** @return true if the CUSIP belongs to this partition */
+  boolean owns(String cusip) {
+    return count == 1 || Math.floorMod(cusip.hashCode(), count) == index;
+  }
+
+  boolean isPartitioned() {
+    return count > 1;
+  }
+
+  /** @return true for the partition that coordinates the others */
+  boolean isCoordinator() {
+    return index == 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("partition %d of %d", index, count);
+  }
+}
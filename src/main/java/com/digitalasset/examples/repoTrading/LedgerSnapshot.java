@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.CreatedEvent;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.digitalasset.ledger.api.v1.EventOuterClass;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local snapshot of the active contracts of a ledger subscription, and the ledger offset they
+ * are active at. On restart the subscription replays the snapshot to its bots, which rebuild their
+ * derived state from it exactly as from the active contract set, and follows the transaction
+ * stream from the snapshot's offset, rather than loading the active contract set from the ledger.
+ *
+ * <p>The file is a gzipped header, of the format version, ledger id, filter digest and offset,
+ * followed by each contract's created event as a length delimited protobuf message. A snapshot
+ * written for another ledger or filter is ignored.
+ */
+class LedgerSnapshot {
+
+  private static final Logger log = LoggerFactory.getLogger(LedgerSnapshot.class);
+
+  private static final int FORMAT = 2;
+
+  /** The active contracts at a ledger offset */
+  static class State {
+    final String offset;
+    final List<CreatedEvent> contracts;
+
+    State(String offset, List<CreatedEvent> contracts) {
+      this.offset = offset;
+      this.contracts = contracts;
+    }
+  }
+
+  private final Path file;
+
+  /** @param file - the snapshot file, which need not exist yet */
+  LedgerSnapshot(Path file) {
+    this.file = file;
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * Read the snapshot, if there is one for the ledger and filter.
+   *
+   * @param ledgerId - the ledger subscribed to
+   * @param filterKey - the subscription's filter, from {@link #filterKey(Map)}
+   * @return the snapshot's contracts and offset, or null to load the active contract set instead
+   */
+  State read(String ledgerId, String filterKey) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != FORMAT
+          || !in.readUTF().equals(ledgerId)
+          || !in.readUTF().equals(filterKey)) {
+        log.info("ignoring snapshot {}, written for another ledger or filter", file);
+        return null;
+      }
+      String offset = in.readUTF();
+      int count = in.readInt();
+      List<CreatedEvent> contracts = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        contracts.add(
+            CreatedEvent.fromProto(EventOuterClass.CreatedEvent.parseDelimitedFrom(in)));
+      }
+      return new State(offset, contracts);
+    } catch (IOException | RuntimeException e) {
+      log.warn("ignoring unreadable snapshot {}", file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Write the snapshot. It is written to a temporary file first and moved into place, so a crash
+   * while writing leaves the previous snapshot intact.
+   *
+   * @param ledgerId - the ledger subscribed to
+   * @param filterKey - the subscription's filter, from {@link #filterKey(Map)}
+   * @param offset - the offset the contracts are active at
+   * @param contracts - the created events of the active contracts
+   */
+  void write(String ledgerId, String filterKey, String offset, Collection<CreatedEvent> contracts)
+      throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+      out.writeInt(FORMAT);
+      out.writeUTF(ledgerId);
+      out.writeUTF(filterKey);
+      out.writeUTF(offset);
+      out.writeInt(contracts.size());
+      for (CreatedEvent contract : contracts) {
+        contract.toProto().writeDelimitedTo(out);
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param templatesByParty - the templates subscribed to, by party
+   * @return the SHA-256 digest of the parties and templates, in an order independent of the bots'
+   *     registrations, in hex. The filter itself may be longer than a header string can hold.
+   */
+  static String filterKey(Map<String, Set<Identifier>> templatesByParty) {
+    Map<String, Set<String>> sorted = new TreeMap<>();
+    templatesByParty.forEach(
+        (party, templateIds) -> {
+          Set<String> names = new TreeSet<>();
+          templateIds.forEach(
+              t -> names.add(t.getPackageId() + ":" + RepoMarketBot.identifierToString(t)));
+          sorted.put(party, names);
+        });
+    return sha256(sorted.toString());
+  }
+
+  private static String sha256(String text) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // Every JRE provides SHA-256
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
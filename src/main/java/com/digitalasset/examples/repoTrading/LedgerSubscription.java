@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.ArchivedEvent;
+import com.daml.ledger.javaapi.data.CreatedEvent;
+import com.daml.ledger.javaapi.data.Event;
+import com.daml.ledger.javaapi.data.Filter;
+import com.daml.ledger.javaapi.data.FiltersByParty;
+import com.daml.ledger.javaapi.data.GetActiveContractsResponse;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.InclusiveFilter;
+import com.daml.ledger.javaapi.data.LedgerOffset;
+import com.daml.ledger.javaapi.data.Transaction;
+import com.daml.ledger.javaapi.data.TransactionFilter;
+import com.daml.ledger.rxjava.DamlLedgerClient;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single active contract set load and transaction stream shared by all the event driven bots in
+ * the process, which are all of the bots unless run with {@code --ledgerView}. Started with "all",
+ * every bot in the configuration shares it. The bots' filters are merged into one, and each event
+ * is passed to the bots whose party witnessed it and whose filter includes its template.
+ *
+ * <p>With a {@link LedgerSnapshot}, the subscription also keeps the created events of the active
+ * contracts and the offset of the last transaction, and writes them to the snapshot periodically.
+ * On start it resumes from the snapshot, if there is one for the same ledger and filter, and
+ * catches up with the transactions after its offset only.
+ */
+class LedgerSubscription {
+
+  private static final Logger log = LoggerFactory.getLogger(LedgerSubscription.class);
+
+  /** A bot and the templates it has subscribed to */
+  private static class Subscriber {
+    final RepoMarketBot bot;
+    final Set<Identifier> templateIds;
+
+    Subscriber(RepoMarketBot bot, Set<Identifier> templateIds) {
+      this.bot = bot;
+      this.templateIds = templateIds;
+    }
+  }
+
+  private final Map<String, List<Subscriber>> subscribersByParty = new HashMap<>();
+  private final Map<String, Set<Identifier>> templatesByParty = new LinkedHashMap<>();
+  private final List<RepoMarketBot> bots = new ArrayList<>();
+  private boolean started = false;
+
+  // Snapshot state, updated on the transaction stream's thread and read by the snapshot writer
+  private LedgerSnapshot snapshot = null;
+  private int snapshotIntervalSeconds;
+  private final Map<String, CreatedEvent> activeContracts = new LinkedHashMap<>();
+  private String offset = null;
+  private String snapshotOffset = null;
+
+  /**
+   * Keep a snapshot of the subscription, to restart from. Must be called before the subscription
+   * is started.
+   *
+   * @param snapshot - the snapshot to resume from and write
+   * @param intervalSeconds - the time between writes of the snapshot
+   */
+  synchronized void enableSnapshots(LedgerSnapshot snapshot, int intervalSeconds) {
+    if (started) {
+      throw new IllegalStateException("Ledger subscription already started");
+    }
+    this.snapshot = snapshot;
+    this.snapshotIntervalSeconds = intervalSeconds;
+  }
+
+  /**
+   * Add a bot. All bots must be added before the subscription is started.
+   *
+   * @param bot - an event driven bot, with an inclusive filter per party
+   */
+  synchronized void addBot(RepoMarketBot bot) {
+    if (started) {
+      throw new IllegalStateException("Ledger subscription already started");
+    }
+    TransactionFilter filter = bot.getTransactionFilter();
+    if (!(filter instanceof FiltersByParty)) {
+      throw new IllegalArgumentException("Bots must filter by party: " + filter);
+    }
+
+    for (Map.Entry<String, Filter> entry :
+        ((FiltersByParty) filter).getPartyToFilters().entrySet()) {
+      Set<Identifier> templateIds =
+          new HashSet<>(((InclusiveFilter) entry.getValue()).getTemplateIds());
+      subscribersByParty
+          .computeIfAbsent(entry.getKey(), k -> new ArrayList<>())
+          .add(new Subscriber(bot, templateIds));
+      templatesByParty.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).addAll(templateIds);
+    }
+    bots.add(bot);
+  }
+
+  /**
+   * Load the active contract set, or the snapshot, and follow the transaction stream from its
+   * offset, for all the added bots. Does nothing if no bots have been added.
+   *
+   * @param client - the ledger client
+   */
+  synchronized void start(DamlLedgerClient client) {
+    if (started || bots.isEmpty()) {
+      return;
+    }
+    started = true;
+
+    Map<String, Filter> filters = new HashMap<>();
+    templatesByParty.forEach(
+        (party, templateIds) -> filters.put(party, new InclusiveFilter(templateIds)));
+    TransactionFilter filter = new FiltersByParty(filters);
+    log.debug("subscribing for {} bots, parties={}", bots.size(), filters.keySet());
+
+    String ledgerId = client.getLedgerId();
+    String filterKey = LedgerSnapshot.filterKey(templatesByParty);
+    LedgerSnapshot.State resumed = snapshot == null ? null : snapshot.read(ledgerId, filterKey);
+
+    LedgerOffset offset;
+    if (resumed != null) {
+      log.info(
+          "resuming from snapshot {}, offset={}, contracts={}",
+          snapshot.getFile(),
+          resumed.offset,
+          resumed.contracts.size());
+      dispatchCreated(resumed.contracts, resumed.offset);
+      offset = new LedgerOffset.Absolute(resumed.offset);
+    } else {
+      offset =
+          client
+              .getActiveContractSetClient()
+              .getActiveContracts(filter, true)
+              .map(this::dispatchActiveContracts)
+              .filter(response -> response.getOffset().isPresent())
+              .map(response -> (LedgerOffset) new LedgerOffset.Absolute(response.getOffset().get()))
+              .lastElement()
+              .blockingGet(LedgerOffset.LedgerBegin.getInstance());
+    }
+
+    bots.forEach(bot -> bot.processEvents(Collections.emptyList(), true));
+
+    client
+        .getTransactionsClient()
+        .getTransactions(offset, filter, true)
+        .subscribe(
+            this::dispatchTransaction,
+            e -> {
+              log.error("transaction stream failed", e);
+              RepoTradingMain.logError("", "transaction stream failed: " + e.getMessage());
+            });
+
+    if (snapshot != null) {
+      ScheduledExecutorService writer =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "ledger-snapshot");
+                t.setDaemon(true);
+                return t;
+              });
+      writer.scheduleWithFixedDelay(
+          () -> writeSnapshot(ledgerId, filterKey),
+          snapshotIntervalSeconds,
+          snapshotIntervalSeconds,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  private GetActiveContractsResponse dispatchActiveContracts(GetActiveContractsResponse response) {
+    dispatchCreated(response.getCreatedEvents(), response.getOffset().orElse(null));
+    return response;
+  }
+
+  private void dispatchCreated(List<CreatedEvent> events, String offset) {
+    keepActiveContracts(events, offset);
+    demultiplex(events).forEach((bot, botEvents) -> bot.processEvents(botEvents, false));
+  }
+
+  private void dispatchTransaction(Transaction transaction) {
+    keepActiveContracts(transaction.getEvents(), transaction.getOffset());
+    demultiplex(transaction.getEvents()).forEach((bot, events) -> bot.processEvents(events, true));
+  }
+
+  /**
+   * Apply events to the active contracts kept for the snapshot, together with the offset they
+   * bring the contracts to, so a snapshot never holds the contracts of one offset with another.
+   *
+   * @param events - the events, in ledger order
+   * @param offset - the offset after the events, or null if it is unchanged
+   */
+  void keepActiveContracts(List<? extends Event> events, String offset) {
+    if (snapshot == null) {
+      return;
+    }
+    synchronized (activeContracts) {
+      for (Event event : events) {
+        if (event instanceof CreatedEvent) {
+          activeContracts.put(event.getContractId(), (CreatedEvent) event);
+        } else if (event instanceof ArchivedEvent) {
+          activeContracts.remove(event.getContractId());
+        }
+      }
+      if (offset != null) {
+        this.offset = offset;
+      }
+    }
+  }
+
+  /** @return the active contracts and the offset they are active at, or null before an offset */
+  LedgerSnapshot.State getSnapshotState() {
+    synchronized (activeContracts) {
+      return offset == null
+          ? null
+          : new LedgerSnapshot.State(offset, new ArrayList<>(activeContracts.values()));
+    }
+  }
+
+  /** Write the active contracts to the snapshot, if there have been transactions since the last */
+  private void writeSnapshot(String ledgerId, String filterKey) {
+    LedgerSnapshot.State state = getSnapshotState();
+    if (state == null || state.offset.equals(snapshotOffset)) {
+      return;
+    }
+    try {
+      long start = System.nanoTime();
+      snapshot.write(ledgerId, filterKey, state.offset, state.contracts);
+      snapshotOffset = state.offset;
+      log.debug(
+          "wrote snapshot, offset={}, contracts={}, millis={}",
+          state.offset,
+          state.contracts.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (Exception e) {
+      log.warn("failed to write snapshot {}", snapshot.getFile(), e);
+    }
+  }
+
+  /** @return the events for each bot, in ledger order */
+  private Map<RepoMarketBot, List<Event>> demultiplex(List<? extends Event> events) {
+    Map<RepoMarketBot, List<Event>> eventsByBot = new IdentityHashMap<>();
+    for (Event event : events) {
+      for (String party : event.getWitnessParties()) {
+        for (Subscriber subscriber :
+            subscribersByParty.getOrDefault(party, Collections.emptyList())) {
+          if (subscriber.templateIds.contains(event.getTemplateId())) {
+            List<Event> botEvents =
+                eventsByBot.computeIfAbsent(subscriber.bot, k -> new ArrayList<>());
+            // A bot filtering for several witnesses of an event receives it once
+            if (botEvents.isEmpty() || botEvents.get(botEvents.size() - 1) != event) {
+              botEvents.add(event);
+            }
+          }
+        }
+      }
+    }
+    return eventsByBot;
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Plans the merging of fragmented lots, such as Security lots of a CUSIP or Cash lots of a
+ * currency. A merge choice archives both lots and creates one with their sum, so the new lot's
+ * contractId is not known until the merge completes. A single command can therefore only merge
+ * disjoint pairs of lots, and each pass over the lots halves the number in each group, until a
+ * group is no longer fragmented.
+ */
+final class LotCompaction {
+
+  /** The merge of one lot into another */
+  static class Merge {
+    final String lotId;
+    final String intoId;
+
+    Merge(String lotId, String intoId) {
+      this.lotId = lotId;
+      this.intoId = intoId;
+    }
+  }
+
+  /**
+   * The lots of each group, maintained from their creation and archive as a contract listener. The
+   * groups over the threshold are kept apart, so planning merges reads only their lots rather than
+   * every lot.
+   */
+  static class Groups<K> implements RepoMarketBot.ContractListener {
+    private final Function<Template, K> groupOf;
+    private final IntSupplier threshold;
+    private final Map<K, Set<String>> lotsByGroup = new HashMap<>();
+    private final Map<String, K> groupByLot = new HashMap<>();
+    private final Set<K> fragmented = new LinkedHashSet<>(); // Groups over the threshold
+
+    /**
+     * @param groupOf - the group of a lot
+     * @param threshold - the number of lots above which a group is compacted
+     */
+    Groups(Function<Template, K> groupOf, IntSupplier threshold) {
+      this.groupOf = groupOf;
+      this.threshold = threshold;
+    }
+
+    @Override
+    public void created(String contractId, Template contract) {
+      K group = groupOf.apply(contract);
+      if (groupByLot.putIfAbsent(contractId, group) != null) {
+        return;
+      }
+      Set<String> lots = lotsByGroup.computeIfAbsent(group, k -> new LinkedHashSet<>());
+      lots.add(contractId);
+      if (lots.size() > threshold.getAsInt()) {
+        fragmented.add(group);
+      }
+    }
+
+    @Override
+    public void archived(String contractId) {
+      K group = groupByLot.remove(contractId);
+      if (group == null) {
+        return;
+      }
+      Set<String> lots = lotsByGroup.get(group);
+      lots.remove(contractId);
+      if (lots.isEmpty()) {
+        lotsByGroup.remove(group);
+      }
+      if (lots.size() <= threshold.getAsInt()) {
+        fragmented.remove(group);
+      }
+    }
+
+    /** @return a merge of each disjoint pair of lots of the groups over the threshold */
+    List<Merge> merges() {
+      Map<K, List<String>> lotsByFragmentedGroup = new LinkedHashMap<>();
+      fragmented.forEach(
+          group -> lotsByFragmentedGroup.put(group, new ArrayList<>(lotsByGroup.get(group))));
+      return LotCompaction.merges(lotsByFragmentedGroup, threshold.getAsInt());
+    }
+
+    /** @return the number of groups over the threshold */
+    int getFragmentedCount() {
+      return fragmented.size();
+    }
+  }
+
+  private LotCompaction() {}
+
+  /**
+   * @param lotsByGroup - the contractIds of the lots that may be merged together, by group
+   * @param threshold - the number of lots above which a group is compacted
+   * @return a merge of each disjoint pair of lots of the groups over the threshold
+   */
+  static <K> List<Merge> merges(Map<K, List<String>> lotsByGroup, int threshold) {
+    List<Merge> merges = new ArrayList<>();
+    for (List<String> lots : lotsByGroup.values()) {
+      if (lots.size() > threshold) {
+        for (int i = 0; i + 1 < lots.size(); i += 2) {
+          merges.add(new Merge(lots.get(i + 1), lots.get(i)));
+        }
+      }
+    }
+    return merges;
+  }
+}
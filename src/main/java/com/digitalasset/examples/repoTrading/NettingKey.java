@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import main.trade.NovatedTrade;
+
+/**
+ * The key by which novated trades are netted: trades of the same settlement date, participant,
+ * cusip and currency form a netting group.
+ *
+ * <p>Party, cusip and currency names are interned, so keys compare their components by reference,
+ * and the hash is computed once when the key is created.
+ */
+final class NettingKey {
+
+  private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+  private final long settlementDate; // microseconds since the epoch, as held by the ledger
+  private final String participantId;
+  private final String cusip;
+  private final String currency;
+  private final int hash;
+
+  NettingKey(Instant settlementDate, String participantId, String cusip, String currency) {
+    this.settlementDate =
+        settlementDate.getEpochSecond() * 1_000_000L + settlementDate.getNano() / 1_000;
+    this.participantId = intern(participantId);
+    this.cusip = intern(cusip);
+    this.currency = intern(currency);
+
+    int h = Long.hashCode(this.settlementDate);
+    h = 31 * h + this.participantId.hashCode();
+    h = 31 * h + this.cusip.hashCode();
+    h = 31 * h + this.currency.hashCode();
+    this.hash = h;
+  }
+
+  static NettingKey of(NovatedTrade novatedTrade) {
+    return new NettingKey(
+        novatedTrade.tradeInfo.settlementDate,
+        novatedTrade.participantId,
+        novatedTrade.tradeInfo.cusip,
+        novatedTrade.tradeInfo.currency);
+  }
+
+  /**
+   * Group novated trades by their netting key.
+   *
+   * @param novatedTrades - NovatedTrade contracts, indexed by contractId
+   * @return the contractIds of each group
+   */
+  static List<List<String>> group(Map<String, Template> novatedTrades) {
+    Map<NettingKey, List<String>> groups = new HashMap<>();
+    for (Map.Entry<String, Template> entry : novatedTrades.entrySet()) {
+      groups
+          .computeIfAbsent(of((NovatedTrade) entry.getValue()), k -> new ArrayList<>())
+          .add(entry.getKey());
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  private static String intern(String name) {
+    String interned = names.putIfAbsent(name, name);
+    return interned == null ? name : interned;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof NettingKey)) {
+      return false;
+    }
+    NettingKey that = (NettingKey) o;
+    return hash == that.hash
+        && settlementDate == that.settlementDate
+        && participantId == that.participantId
+        && cusip == that.cusip
+        && currency == that.currency;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s:%s:%s:%s",
+        Instant.ofEpochSecond(0, settlementDate * 1_000), participantId, cusip, currency);
+  }
+}
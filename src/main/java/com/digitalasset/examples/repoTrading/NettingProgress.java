@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import main.netting.NettingGroup;
+
+/**
+ * Tracks the formation of netting groups for a settlement date. The groups are split into chunks of
+ * bounded size, each formed by its own FormNettingGroups exercise, and completion is tracked per
+ * chunk as the NettingGroup contracts appear.
+ */
+class NettingProgress {
+
+  /** A set of netting groups formed by a single command */
+  static class Chunk {
+    final int index;
+    final List<List<String>> groups; // The novated trade contractIds of each group
+    private int groupsRemaining;
+    private boolean failed = false;
+
+    Chunk(int index, List<List<String>> groups) {
+      this.index = index;
+      this.groups = groups;
+      this.groupsRemaining = groups.size();
+    }
+
+    boolean isComplete() {
+      return groupsRemaining == 0;
+    }
+  }
+
+  private final List<Chunk> chunks = new ArrayList<>();
+  private final List<Chunk> failedChunks = new ArrayList<>();
+  private final Map<String, Chunk> chunkByTradeId = new HashMap<>();
+  private final int groupCount;
+  private int chunksRemaining;
+
+  /**
+   * @param groups - the novated trade contractIds of each netting group
+   * @param chunkSize - the maximum number of groups formed by one command
+   */
+  NettingProgress(List<List<String>> groups, int chunkSize) {
+    RepoMarketBot.batches(groups, chunkSize)
+        .forEach(
+            batch -> {
+              Chunk chunk = new Chunk(chunks.size(), batch);
+              chunks.add(chunk);
+              batch.forEach(group -> group.forEach(id -> chunkByTradeId.put(id, chunk)));
+            });
+    this.groupCount = groups.size();
+    this.chunksRemaining = chunks.size();
+  }
+
+  List<Chunk> getChunks() {
+    return Collections.unmodifiableList(chunks);
+  }
+
+  /**
+   * @param nettingGroup - a NettingGroup contract
+   * @return the novated trade contractIds of the group
+   */
+  static List<String> tradeIds(Template nettingGroup) {
+    return ((NettingGroup) nettingGroup)
+        .contractList.stream().map(id -> id.contractId).collect(Collectors.toList());
+  }
+
+  /**
+   * A netting group has been created - count it against the chunk that formed it.
+   *
+   * @param tradeIds - the novated trade contractIds of the new group
+   * @return the chunk, if this group completed it
+   */
+  Chunk groupFormed(List<String> tradeIds) {
+    Chunk chunk = tradeIds.isEmpty() ? null : chunkByTradeId.get(tradeIds.get(0));
+
+    if (chunk == null || chunk.isComplete()) {
+      return null;
+    }
+
+    chunk.groupsRemaining--;
+    if (chunk.isComplete()) {
+      chunksRemaining--;
+      return chunk;
+    }
+    return null;
+  }
+
+  /**
+   * A novated trade has reappeared in the ledger view after being submitted for netting. The
+   * command forming its chunk has failed, so the chunk must be submitted again.
+   *
+   * @param tradeId - the novated trade contractId
+   */
+  void tradeReturned(String tradeId) {
+    Chunk chunk = chunkByTradeId.get(tradeId);
+    if (chunk != null && !chunk.isComplete() && !chunk.failed) {
+      chunk.failed = true;
+      failedChunks.add(chunk);
+    }
+  }
+
+  /** @return the chunks that have failed since the last call, clearing their failed state */
+  List<Chunk> takeFailedChunks() {
+    List<Chunk> failed = new ArrayList<>(failedChunks);
+    failed.forEach(chunk -> chunk.failed = false);
+    failedChunks.clear();
+    return failed;
+  }
+
+  int getGroupCount() {
+    return groupCount;
+  }
+
+  boolean isComplete() {
+    return chunksRemaining == 0;
+  }
+}
@@ -5,17 +5,14 @@
 package com.digitalasset.examples.repoTrading;
 
 import com.daml.ledger.javaapi.data.*;
-import com.daml.ledger.rxjava.components.LedgerViewFlowable;
 import com.daml.ledger.rxjava.components.helpers.CommandsAndPendingSet;
 import com.digitalasset.examples.repoTrading.util.Configuration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import main.genesis.Genesis;
 import org.pcollections.HashTreePMap;
 import org.slf4j.Logger;
@@ -34,6 +31,9 @@ public class OperatorBot extends RepoMarketBot {
   OperatorBot(RepoTradingMain mainClass, String party) {
     super(mainClass, party);
     genesisTemplateId = Genesis.TEMPLATE_ID;
+
+    handleCreated(genesisTemplateId, this::inviteCcpAndPaymentProcessor);
+    handleCreated(ccpTemplateId, this::inviteTradingParties);
   }
 
   @Override
@@ -43,6 +43,10 @@ public class OperatorBot extends RepoMarketBot {
       return 1;
     }
 
+    if (getConfiguration().getOperator() != null) {
+      newControlServer(getConfiguration().getOperator().getPort()).start();
+    }
+
     super.run(args);
     loadTradingParties();
     createGenesisContract();
@@ -66,18 +70,7 @@ public class OperatorBot extends RepoMarketBot {
             new Record(
                 genesisTemplateId, new Record.Field("operator", new Party(getOperatorName()))));
 
-    submitCommands(ONBOARDING_WORKFLOW_ID, Collections.singletonList(createCommand));
-  }
-
-  @Override
-  public Stream<CommandsAndPendingSet> process(LedgerViewFlowable.LedgerView<Template> ledgerView) {
-
-    log.trace("Operator process, state: {}", ledgerView);
-
-    return Stream.concat(
-        ledgerView.getContracts(genesisTemplateId).entrySet().stream()
-            .map(this::inviteCcpAndPaymentProcessor),
-        ledgerView.getContracts(ccpTemplateId).entrySet().stream().map(this::inviteTradingParties));
+    submitCommands(ONBOARDING_WORKFLOW_ID, Collections.singletonList(createCommand)).join();
   }
 
   private CommandsAndPendingSet inviteCcpAndPaymentProcessor(Map.Entry<String, Template> entry) {
@@ -136,12 +129,4 @@ public class OperatorBot extends RepoMarketBot {
       return CommandsAndPendingSet.empty;
     }
   }
-
-  @Override
-  public TransactionFilter getTransactionFilter() {
-    InclusiveFilter inclusiveFilter =
-        new InclusiveFilter(new HashSet<>(Arrays.asList(genesisTemplateId, ccpTemplateId)));
-    Map<String, Filter> filter = Collections.singletonMap(getParty(), inclusiveFilter);
-    return new FiltersByParty(filter);
-  }
 }
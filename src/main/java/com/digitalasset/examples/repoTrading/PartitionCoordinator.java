@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates the completion of settlement cycles across the partitions of a clearing house. Each
+ * worker reports the dates it has settled on its {@link #ROUTE} control route, and the coordinator
+ * polls the routes of the other workers to learn when a date has settled in every partition.
+ */
+class PartitionCoordinator {
+
+  private static final Logger log = LoggerFactory.getLogger(PartitionCoordinator.class);
+
+  static final String ROUTE = "/partition";
+
+  private static final int TIMEOUT_MILLIS = 2000;
+
+  /** The outcome of the settlement of a date in one or more partitions */
+  static class CycleSummary {
+    final int trades;
+    final int dvps;
+
+    CycleSummary(int trades, int dvps) {
+      this.trades = trades;
+      this.dvps = dvps;
+    }
+
+    CycleSummary plus(CycleSummary other) {
+      return new CycleSummary(trades + other.trades, dvps + other.dvps);
+    }
+  }
+
+  private final List<String> workers; // The host:port of each other partition's control server
+
+  /** @param workers - the control server host:port of partitions 1 to N-1, in order */
+  PartitionCoordinator(List<String> workers) {
+    this.workers = workers;
+  }
+
+  /**
+   * @param completed - the dates a partition has settled
+   * @return the partition's status, a line per date of the date, trades novated and DvPs settled
+   */
+  static String status(Map<LocalDate, CycleSummary> completed) {
+    StringBuilder status = new StringBuilder();
+    new TreeMap<>(completed)
+        .forEach((date, s) -> status.append(String.format("%s %d %d\n", date, s.trades, s.dvps)));
+    return status.toString();
+  }
+
+  /**
+   * @param status - a partition's status, from {@link #status(Map)}
+   * @return the dates the partition has settled
+   */
+  static Map<LocalDate, CycleSummary> parseStatus(String status) {
+    Map<LocalDate, CycleSummary> completed = new TreeMap<>();
+    for (String line : status.split("\n")) {
+      String[] fields = line.trim().split(" ");
+      if (fields.length == 3) {
+        completed.put(
+            LocalDate.parse(fields[0]),
+            new CycleSummary(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+      }
+    }
+    return completed;
+  }
+
+  /**
+   * Poll the other partitions for a date this partition has settled.
+   *
+   * @param date - the settlement date
+   * @param own - the outcome of the date in this partition
+   * @return the outcome of the date in all partitions, or null if any has not yet settled it, or
+   *     cannot be reached
+   */
+  CycleSummary settled(LocalDate date, CycleSummary own) {
+    CycleSummary total = own;
+    for (String worker : workers) {
+      CycleSummary summary;
+      try {
+        summary = parseStatus(fetch(worker)).get(date);
+      } catch (IOException | RuntimeException e) {
+        log.debug("partition status unavailable: worker={}, error={}", worker, e.toString());
+        return null;
+      }
+      if (summary == null) {
+        return null;
+      }
+      total = total.plus(summary);
+    }
+    return total;
+  }
+
+  private static String fetch(String worker) throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://" + worker + ROUTE).openConnection();
+    connection.setConnectTimeout(TIMEOUT_MILLIS);
+    connection.setReadTimeout(TIMEOUT_MILLIS);
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+      return reader.lines().collect(Collectors.joining("\n"));
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
@@ -5,13 +5,9 @@
 package com.digitalasset.examples.repoTrading;
 
 import com.daml.ledger.javaapi.data.*;
-import com.daml.ledger.rxjava.components.LedgerViewFlowable;
 import com.daml.ledger.rxjava.components.helpers.CommandsAndPendingSet;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.stream.Stream;
 import main.ccp.CCPInvite;
 import org.pcollections.HashTreePMap;
 import org.pcollections.HashTreePSet;
@@ -28,11 +24,16 @@ public class PaymentProcessorBot extends RepoMarketBot {
   public PaymentProcessorBot(RepoTradingMain mainClass, String party) {
     super(mainClass, party);
     this.ccpInviteTemplateId = CCPInvite.TEMPLATE_ID;
+
+    handleCreated(ccpInviteTemplateId, this::confirmCcp);
   }
 
   @Override
-  public Stream<CommandsAndPendingSet> process(LedgerViewFlowable.LedgerView<Template> ledgerView) {
-    return ledgerView.getContracts(ccpInviteTemplateId).entrySet().stream().map(this::confirmCcp);
+  public int run(String[] args) throws java.io.IOException {
+    if (getConfiguration().getPaymentProcessor() != null) {
+      newControlServer(getConfiguration().getPaymentProcessor().getPort()).start();
+    }
+    return super.run(args);
   }
 
   private CommandsAndPendingSet confirmCcp(Map.Entry<String, Template> entry) {
@@ -46,12 +47,4 @@ public class PaymentProcessorBot extends RepoMarketBot {
         Collections.singletonList(newExercise(ccpInviteTemplateId, contractId, "ConfirmCCP")),
         HashTreePMap.singleton(ccpInviteTemplateId, HashTreePSet.singleton(contractId)));
   }
-
-  @Override
-  public TransactionFilter getTransactionFilter() {
-    InclusiveFilter inclusiveFilter =
-        new InclusiveFilter(new HashSet<>(Arrays.asList(ccpInviteTemplateId)));
-    Map<String, Filter> filter = Collections.singletonMap(getParty(), inclusiveFilter);
-    return new FiltersByParty(filter);
-  }
 }
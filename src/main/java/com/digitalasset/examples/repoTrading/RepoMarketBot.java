@@ -10,38 +10,62 @@ import com.daml.ledger.rxjava.components.Bot;
 import com.daml.ledger.rxjava.components.LedgerViewFlowable;
 import com.daml.ledger.rxjava.components.helpers.CommandsAndPendingSet;
 import com.daml.ledger.rxjava.components.helpers.CreatedContract;
-import com.daml.ledger.rxjava.components.helpers.TemplateUtils;
+import com.digitalasset.examples.repoTrading.util.AdaptiveBatchSizer;
 import com.digitalasset.examples.repoTrading.util.Configuration;
+import com.digitalasset.examples.repoTrading.util.ControlJobs;
+import com.digitalasset.examples.repoTrading.util.ControlServer;
+import com.digitalasset.examples.repoTrading.util.LatencyHistogram;
+import com.digitalasset.examples.repoTrading.util.PrometheusText;
+import com.sun.net.httpserver.HttpExchange;
 import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import main.cash.Cash;
-import main.cash.LockedCash;
 import main.cashrequest.CashRequest;
 import main.ccp.CCP;
-import main.ccp.CCPInvite;
-import main.ccp.InitiateSettlementControl;
-import main.ccp.InviteClearingHouse;
 import main.dvp.AllocatedDvP;
 import main.dvp.CashAllocatedDvP;
 import main.dvp.DvP;
 import main.dvp.SettledDvP;
-import main.genesis.Genesis;
 import main.netobligation.NetObligation;
 import main.netobligation.NetObligationRequest;
 import main.netting.NettingGroup;
-import main.security.MergedSecurity;
 import main.security.Security;
 import main.trade.NovatedTrade;
 import main.trade.Trade;
-import main.trade.TradeRegistrationRequest;
-import main.tradingparticipant.InviteTradingParticipant;
-import main.tradingparticipant.TradingParticipant;
+import org.pcollections.HashTreePMap;
 import org.pcollections.PMap;
 import org.pcollections.PSet;
 import org.slf4j.Logger;
@@ -56,6 +80,7 @@ public abstract class RepoMarketBot {
   static final String TRADE_INJECTION_WORKFLOW_ID = "TradeInjection";
   static final String NETTING_WORKFLOW_ID = "Netting";
   static final String SETTLEMENT_WORKFLOW_ID = "Settlement";
+  static final String COMPACTION_WORKFLOW_ID = "Compaction";
 
   // Template identities
   final Identifier ccpTemplateId;
@@ -72,10 +97,49 @@ public abstract class RepoMarketBot {
   final Identifier cashTemplateId;
   final Identifier securityTemplateId;
 
+  /**
+   * Receives the contracts of a single template as they are created and archived, so that derived
+   * state can be maintained incrementally rather than recomputed from the full ledger view.
+   */
+  interface ContractListener {
+
+    void created(String contractId, Template contract);
+
+    void archived(String contractId);
+  }
+
+  /** The active contracts of the bot's templates, excluding those pending on submitted commands */
+  interface ActiveContracts {
+
+    PMap<String, Template> getContracts(Identifier templateId);
+  }
+
   // Instance vars
   private final RepoTradingMain mainClass;
   private String party;
 
+  private final Map<Identifier, List<ContractListener>> contractListeners = new HashMap<>();
+  private final Map<Identifier, PMap<String, Template>> lastContracts = new HashMap<>();
+  private final Map<Identifier, List<Consumer<Template>>> createdObservers = new HashMap<>();
+  private final Map<Identifier, Function<Map.Entry<String, Template>, CommandsAndPendingSet>>
+      createdHandlers = new LinkedHashMap<>();
+
+  // Event driven runtime state, used only on the bot's event thread
+  private final ContractStore contractStore = new ContractStore();
+  private Scheduler eventScheduler;
+
+  private CommandSubmitter submitter = null;
+  private ControlJobs jobs = null;
+
+  // Runtime metrics, written on the bot's thread and read by the control server
+  private final LatencyHistogram processLatency = new LatencyHistogram();
+  private final AtomicLong commandsEmitted = new AtomicLong();
+  private final Set<Identifier> usedTemplateIds = new LinkedHashSet<>();
+  private Set<Identifier> filterTemplateIds = null; // Fixed when the bot starts
+  private volatile TemplateDecoders decoders = null;
+  private volatile Map<Identifier, Integer> contractCounts = Collections.emptyMap();
+  private volatile int pendingCount = 0;
+
   RepoMarketBot(RepoTradingMain mainClass, String party) {
     this.mainClass = mainClass;
     this.party = party;
@@ -96,55 +160,377 @@ public abstract class RepoMarketBot {
   }
 
   public int run(String[] args) throws java.io.IOException {
-    Bot.wire(
-        RepoTradingMain.APP_ID,
-        mainClass.getClient(),
-        getTransactionFilter(),
-        this::runProcess,
-        RepoMarketBot::asDomainObject);
+    mainClass.getSettlementTracer().attach(this);
+    filterTemplateIds = Collections.unmodifiableSet(new HashSet<>(usedTemplateIds));
+    decoders = new TemplateDecoders(filterTemplateIds);
+    if (mainClass.isEventDriven()) {
+      eventScheduler =
+          Schedulers.from(
+              Executors.newSingleThreadExecutor(r -> new Thread(r, getParty() + "-events")));
+      mainClass.getLedgerSubscription().addBot(this);
+    } else {
+      Bot.wire(
+          RepoTradingMain.APP_ID,
+          mainClass.getClient(),
+          getTransactionFilter(),
+          this::runProcess,
+          this::asDomainObject);
+    }
     logMessage("bot started");
     return 0;
   }
 
-  private static Template asDomainObject(CreatedContract created) {
+  private Template asDomainObject(CreatedContract created) {
     log.trace("{} maps to {} ", created.getTemplateId());
-    return TemplateUtils.contractTransformer(
-            Cash.class,
-            LockedCash.class,
-            Security.class,
-            MergedSecurity.class,
-            NovatedTrade.class,
-            DvP.class,
-            CashAllocatedDvP.class,
-            AllocatedDvP.class,
-            SettledDvP.class,
-            NetObligationRequest.class,
-            NetObligation.class,
-            TradeRegistrationRequest.class,
-            Trade.class,
-            Genesis.class,
-            InviteClearingHouse.class,
-            InitiateSettlementControl.class,
-            CCPInvite.class,
-            CCP.class,
-            InviteTradingParticipant.class,
-            TradingParticipant.class,
-            NettingGroup.class,
-            CashRequest.class)
-        .apply(created);
+    return decode(created.getTemplateId(), created.getCreateArguments());
+  }
+
+  private Template decode(Identifier templateId, Record arguments) {
+    Template contract = decoders.decode(templateId, arguments);
+    List<Consumer<Template>> observers = createdObservers.get(templateId);
+    if (observers != null) {
+      observers.forEach(o -> o.accept(contract));
+    }
+    return contract;
+  }
+
+  /**
+   * Decode the create arguments of a contract into the generated class of its template.
+   *
+   * @param templateId - the contract's template
+   * @param arguments - the contract's create arguments
+   * @return the contract
+   */
+  static Template fromRecord(Identifier templateId, Record arguments) {
+    return TemplateDecoders.fromRecord(templateId, arguments);
   }
 
   private Flowable<CommandsAndPendingSet> runProcess(
       LedgerViewFlowable.LedgerView<Template> ledgerView) {
+    long start = System.nanoTime();
+    publishContractChanges(ledgerView);
+    countContracts(ledgerView::getContracts, 0);
     Stream<CommandsAndPendingSet> cmdStream =
-        process(ledgerView).filter(cps -> !cps.equals(CommandsAndPendingSet.empty));
-    return Flowable.fromIterable(cmdStream::iterator);
+        process(ledgerView)
+            .filter(cps -> !cps.equals(CommandsAndPendingSet.empty))
+            .peek(cps -> commandsEmitted.incrementAndGet());
+    return Flowable.fromIterable(cmdStream::iterator)
+        .doFinally(() -> processLatency.record(System.nanoTime() - start));
   }
 
-  public abstract Stream<CommandsAndPendingSet> process(
-      LedgerViewFlowable.LedgerView<Template> ledgerView);
+  /**
+   * Compute the commands for a ledger view: each active contract of a template with a created
+   * handler is passed to the handler, followed by the commands of {@link
+   * #afterEvents(ActiveContracts)}.
+   *
+   * @param ledgerView - the current ledger view
+   * @return a command Stream
+   */
+  public Stream<CommandsAndPendingSet> process(LedgerViewFlowable.LedgerView<Template> ledgerView) {
+    return Stream.concat(
+        createdHandlers.entrySet().stream()
+            .flatMap(
+                h -> ledgerView.getContracts(h.getKey()).entrySet().stream().map(h.getValue())),
+        afterEvents(ledgerView::getContracts));
+  }
+
+  /**
+   * Commands that depend on the state of the ledger as a whole, rather than on a single new
+   * contract. Called after each ledger view, or in event driven mode after each transaction.
+   *
+   * @param contracts - the active contracts
+   * @return a command Stream
+   */
+  Stream<CommandsAndPendingSet> afterEvents(ActiveContracts contracts) {
+    return Stream.empty();
+  }
+
+  /**
+   * The bot's transaction filter, derived from its registrations: it includes exactly the templates
+   * with a created handler, contract listener or created observer, or read through {@link
+   * #readContracts(Identifier...)}, so the bot never streams or holds contracts it does not use.
+   *
+   * @return a filter for the bot's templates, for the bot's party
+   */
+  public TransactionFilter getTransactionFilter() {
+    Set<Identifier> templateIds =
+        filterTemplateIds == null ? new HashSet<>(usedTemplateIds) : filterTemplateIds;
+    Map<String, Filter> filter =
+        Collections.singletonMap(getParty(), new InclusiveFilter(templateIds));
+    return new FiltersByParty(filter);
+  }
+
+  /**
+   * @param templateId - a template
+   * @return true if the template is included in the bot's transaction filter
+   */
+  boolean handles(Identifier templateId) {
+    return usedTemplateIds.contains(templateId);
+  }
 
-  public abstract TransactionFilter getTransactionFilter();
+  /** Include a template in the transaction filter, unless the filter is already fixed */
+  private void use(Identifier templateId) {
+    if (filterTemplateIds != null && !filterTemplateIds.contains(templateId)) {
+      throw new IllegalStateException(
+          "Template registered after the bot started: " + identifierToString(templateId));
+    }
+    usedTemplateIds.add(templateId);
+  }
+
+  /**
+   * Declare the templates whose active contracts are read from the {@link ActiveContracts} in
+   * {@link #afterEvents(ActiveContracts)}, without a handler or listener.
+   *
+   * @param templateIds the templates read
+   */
+  void readContracts(Identifier... templateIds) {
+    Arrays.stream(templateIds).forEach(this::use);
+  }
+
+  /**
+   * Register a listener for creations and archives of a template, and include the template in the
+   * bot's transaction filter.
+   *
+   * @param templateId the template to listen to
+   * @param listener the listener
+   */
+  void addContractListener(Identifier templateId, ContractListener listener) {
+    use(templateId);
+    contractListeners.computeIfAbsent(templateId, k -> new ArrayList<>()).add(listener);
+  }
+
+  /**
+   * Register the handler for new contracts of a template. The handler receives each contract once
+   * when running event driven, and again only if a command using it fails. When driven by the
+   * ledger view it receives every active contract on each view, so handlers must be idempotent and
+   * return {@link CommandsAndPendingSet#empty} for contracts they have already dealt with.
+   *
+   * @param templateId the template to handle, which is included in the transaction filter
+   * @param handler computes the commands for a contract, given its contractId and contract
+   */
+  void handleCreated(
+      Identifier templateId,
+      Function<Map.Entry<String, Template>, CommandsAndPendingSet> handler) {
+    use(templateId);
+    createdHandlers.put(templateId, handler);
+  }
+
+  /**
+   * Observe each contract of a template as it is decoded from its create event. Observers are
+   * called once per contract, as events arrive and independently of the ledger view, so they suit
+   * counters over contracts that accumulate for the life of the ledger. The template is included in
+   * the bot's transaction filter.
+   *
+   * @param templateId the template to observe
+   * @param observer called with each new contract
+   */
+  void observeCreated(Identifier templateId, Consumer<Template> observer) {
+    use(templateId);
+    createdObservers.computeIfAbsent(templateId, k -> new ArrayList<>()).add(observer);
+  }
+
+  /**
+   * @param created - called with the contractId and contract of each new contract
+   * @return a ContractListener that ignores archives
+   */
+  static ContractListener onCreated(BiConsumer<String, Template> created) {
+    return new ContractListener() {
+      @Override
+      public void created(String contractId, Template contract) {
+        created.accept(contractId, contract);
+      }
+
+      @Override
+      public void archived(String contractId) {}
+    };
+  }
+
+  /**
+   * @param accept - selects the contracts to pass on
+   * @param listener - a listener that ignores archives of contracts it has not seen created
+   * @return a ContractListener passing the selected contracts, and all archives, to the listener
+   */
+  static ContractListener filtered(Predicate<Template> accept, ContractListener listener) {
+    return new ContractListener() {
+      @Override
+      public void created(String contractId, Template contract) {
+        if (accept.test(contract)) {
+          listener.created(contractId, contract);
+        }
+      }
+
+      @Override
+      public void archived(String contractId) {
+        listener.archived(contractId);
+      }
+    };
+  }
+
+  /**
+   * The contracts of a template passed to it as a listener, in the order they appeared. Wrapped in
+   * {@link #filtered(Predicate, ContractListener)}, it holds the subset of the active contracts a
+   * stage works on, so the stage does not rescan the others on every transaction. Like the active
+   * contracts, it excludes contracts pending on submitted commands.
+   */
+  static class ContractQueue implements ContractListener {
+    private final Map<String, Template> contracts = new LinkedHashMap<>();
+
+    @Override
+    public void created(String contractId, Template contract) {
+      contracts.put(contractId, contract);
+    }
+
+    @Override
+    public void archived(String contractId) {
+      contracts.remove(contractId);
+    }
+
+    Map<String, Template> getContracts() {
+      return Collections.unmodifiableMap(contracts);
+    }
+  }
+
+  /**
+   * Publish the contracts created and archived since the previous ledger view to the registered
+   * listeners. Templates whose contracts have not changed share the same persistent map between
+   * views, so they are skipped without being scanned.
+   *
+   * <p>The ledger view does not expose the events it was built from, so the changes of a template
+   * are found by comparing its whole map with the previous one. Driven by ledger views, each view
+   * that changes a template therefore costs O(n) in its active contracts, and ingesting n trades
+   * O(n^2) overall. Bots are therefore driven by ledger views only with {@code --ledgerView}. The
+   * default, event driven mode passes each event to the listeners directly, at O(1) per event.
+   *
+   * @param ledgerView the new ledger view
+   */
+  private void publishContractChanges(LedgerViewFlowable.LedgerView<Template> ledgerView) {
+    for (Map.Entry<Identifier, List<ContractListener>> entry : contractListeners.entrySet()) {
+      Identifier templateId = entry.getKey();
+      PMap<String, Template> current = ledgerView.getContracts(templateId);
+      PMap<String, Template> previous =
+          lastContracts.getOrDefault(templateId, HashTreePMap.empty());
+
+      if (current == previous) {
+        continue;
+      }
+
+      for (Map.Entry<String, Template> c : current.entrySet()) {
+        if (!previous.containsKey(c.getKey())) {
+          entry.getValue().forEach(l -> l.created(c.getKey(), c.getValue()));
+        }
+      }
+      for (String contractId : previous.keySet()) {
+        if (!current.containsKey(contractId)) {
+          entry.getValue().forEach(l -> l.archived(contractId));
+        }
+      }
+      lastContracts.put(templateId, current);
+    }
+  }
+
+  /**
+   * Event driven mode runs the bot from the ledger's created and archived events rather than from
+   * ledger views. The events are read by the {@link LedgerSubscription} shared by all bots in the
+   * process, and passed to each bot's event thread. Each event is passed to the listeners and
+   * handler of its template only, so the work per event is independent of the number of active
+   * contracts. Commands are submitted through the bot's {@link CommandSubmitter}, so a command
+   * rejected by the ledger returns its contracts just as a failed submission does.
+   *
+   * @param events - the bot's events, from one transaction or part of the active contract set
+   * @param complete - true if the events are a complete transaction, or the end of the active
+   *     contract set, after which the ledger state as a whole should be processed
+   */
+  void processEvents(List<Event> events, boolean complete) {
+    eventScheduler.scheduleDirect(
+        () -> {
+          long start = System.nanoTime();
+          for (Event event : events) {
+            if (event instanceof CreatedEvent) {
+              contractCreated((CreatedEvent) event);
+            } else if (event instanceof ArchivedEvent) {
+              contractArchived((ArchivedEvent) event);
+            }
+          }
+          if (complete) {
+            afterEvents(contractStore).forEach(this::submitEventCommands);
+          }
+          countContracts(contractStore, contractStore.getPendingCount());
+          processLatency.record(System.nanoTime() - start);
+        });
+  }
+
+  private void contractCreated(CreatedEvent event) {
+    Identifier templateId = event.getTemplateId();
+    String contractId = event.getContractId();
+    Template contract = decode(templateId, event.getArguments());
+
+    contractStore.created(templateId, contractId, contract);
+    contractAppeared(templateId, new AbstractMap.SimpleImmutableEntry<>(contractId, contract));
+  }
+
+  private void contractArchived(ArchivedEvent event) {
+    if (contractStore.archived(event.getTemplateId(), event.getContractId())) {
+      contractDisappeared(event.getTemplateId(), event.getContractId());
+    }
+  }
+
+  /**
+   * A contract has become visible, either created or returned by a failed command. Listeners and
+   * handlers see it exactly as they would a contract appearing in the ledger view.
+   */
+  private void contractAppeared(Identifier templateId, Map.Entry<String, Template> entry) {
+    contractListeners
+        .getOrDefault(templateId, Collections.emptyList())
+        .forEach(l -> l.created(entry.getKey(), entry.getValue()));
+
+    Function<Map.Entry<String, Template>, CommandsAndPendingSet> handler =
+        createdHandlers.get(templateId);
+    if (handler != null) {
+      submitEventCommands(handler.apply(entry));
+    }
+  }
+
+  private void contractDisappeared(Identifier templateId, String contractId) {
+    contractListeners
+        .getOrDefault(templateId, Collections.emptyList())
+        .forEach(l -> l.archived(contractId));
+  }
+
+  private void submitEventCommands(CommandsAndPendingSet cps) {
+    if (cps.equals(CommandsAndPendingSet.empty)) {
+      return;
+    }
+    commandsEmitted.incrementAndGet();
+    contractStore
+        .setPending(cps.getContractIdsPendingIfSucceed())
+        .forEach(hidden -> contractDisappeared(hidden.getKey(), hidden.getValue()));
+
+    getSubmitter()
+        .submit(cps.getSubmitCommandsRequest())
+        .whenComplete(
+            (commandId, e) -> {
+              if (e != null) {
+                eventScheduler.scheduleDirect(() -> eventCommandsFailed(cps, e));
+              }
+            });
+  }
+
+  /**
+   * A command has failed - return the contracts it used to the store, and to their listeners and
+   * handlers, as the ledger view does.
+   */
+  private void eventCommandsFailed(CommandsAndPendingSet cps, Throwable error) {
+    log.warn(
+        "{} command {} failed: {}",
+        getParty(),
+        cps.getSubmitCommandsRequest().getCommandId(),
+        error.getMessage());
+
+    contractStore
+        .unsetPending(cps.getContractIdsPendingIfSucceed())
+        .forEach(restored -> contractAppeared(restored.getKey(), restored.getValue()));
+    afterEvents(contractStore).forEach(this::submitEventCommands);
+  }
 
   /**
    * Helper method to build a CommandAndPendingSet with default values
@@ -168,6 +554,75 @@ public abstract class RepoMarketBot {
     return new CommandsAndPendingSet(commands, pendingSet);
   }
 
+  /**
+   * Feed the outcome of a command back to a batch sizer. When event driven, the command is timed
+   * from its submission through the command submitter, once a slot in its in-flight window is
+   * free. The ledger view's wiring submits commands out of sight, so they are timed from now.
+   *
+   * @param sizer - the sizer of the command's batch
+   * @param cps - the command, not yet submitted
+   * @return the command
+   */
+  CommandsAndPendingSet sized(AdaptiveBatchSizer sizer, CommandsAndPendingSet cps) {
+    getSubmitter()
+        .track(cps.getSubmitCommandsRequest().getCommandId())
+        .whenComplete(
+            (latencyNanos, e) -> {
+              if (e == null) {
+                sizer.completed(latencyNanos);
+              } else {
+                sizer.failed();
+              }
+            });
+    return cps;
+  }
+
+  /**
+   * Split a list into consecutive batches of at most a given size
+   *
+   * @param list - the list to split
+   * @param batchSize - the maximum size of a batch
+   * @return a stream of batches, each a view of the original list
+   */
+  static <T> Stream<List<T>> batches(List<T> list, int batchSize) {
+    int batchCount = (list.size() + batchSize - 1) / batchSize;
+    return IntStream.range(0, batchCount)
+        .mapToObj(i -> list.subList(i * batchSize, Math.min(list.size(), (i + 1) * batchSize)));
+  }
+
+  /**
+   * Split a list into consecutive batches, lazily, each of the size given as it is taken. The size
+   * may change between batches, as the commands of earlier batches complete.
+   *
+   * @param list - the list to split
+   * @param batchSize - the maximum size of the next batch, at least 1
+   * @return a stream of batches, each a view of the original list
+   */
+  static <T> Stream<List<T>> batches(List<T> list, IntSupplier batchSize) {
+    Iterator<List<T>> iterator =
+        new Iterator<List<T>>() {
+          private int from = 0;
+
+          @Override
+          public boolean hasNext() {
+            return from < list.size();
+          }
+
+          @Override
+          public List<T> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int to = Math.min(list.size(), from + Math.max(1, batchSize.getAsInt()));
+            List<T> batch = list.subList(from, to);
+            from = to;
+            return batch;
+          }
+        };
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+  }
+
   ExerciseCommand newExercise(
       Identifier templateId, String contractId, String choice, Record.Field... args) {
     log.debug("new exercise: {}, {}, {}, {}", templateId, contractId, choice, args);
@@ -175,23 +630,38 @@ public abstract class RepoMarketBot {
     return new ExerciseCommand(templateId, contractId, choice, new Record(Arrays.asList(args)));
   }
 
-  void submitCommands(String workflowId, List<Command> commands) {
+  /**
+   * Submit commands without waiting for them to complete. The caller blocks only while the maximum
+   * number of commands are in flight.
+   *
+   * @param workflowId the workflowId to use
+   * @param commands the commands to execute
+   * @return a future completed with the commandId, or exceptionally if the commands fail
+   */
+  CompletableFuture<String> submitCommands(String workflowId, List<Command> commands) {
 
     String commandId = UUID.randomUUID().toString();
     log.debug("{} submits command id={}, commands={}", getParty(), commandId, commands);
 
-    // asynchronously send the commands
-    getClient()
-        .getCommandSubmissionClient()
+    return getSubmitter()
         .submit(
-            workflowId,
-            RepoTradingMain.APP_ID,
-            commandId,
-            getParty(),
-            Instant.EPOCH,
-            Instant.EPOCH.plusSeconds(5),
-            commands)
-        .blockingGet();
+            new SubmitCommandsRequest(
+                workflowId,
+                RepoTradingMain.APP_ID,
+                commandId,
+                getParty(),
+                Instant.EPOCH,
+                Instant.EPOCH.plusSeconds(5),
+                commands));
+  }
+
+  /** @return the bot's command submitter, started on first use */
+  synchronized CommandSubmitter getSubmitter() {
+    if (submitter == null) {
+      submitter = new CommandSubmitter(getClient(), getParty(), mainClass.getMaxInFlight());
+      submitter.start();
+    }
+    return submitter;
   }
 
   void logMessage(String message) {
@@ -202,6 +672,136 @@ public abstract class RepoMarketBot {
     RepoTradingMain.logError(getParty(), message);
   }
 
+  /** @return the bot's control jobs, run on the process's job executor */
+  synchronized ControlJobs getJobs() {
+    if (jobs == null) {
+      jobs = new ControlJobs(mainClass.getJobExecutor());
+    }
+    return jobs;
+  }
+
+  /**
+   * Create the bot's control server, serving the routes common to all bots. The bot adds its own
+   * routes before starting it.
+   *
+   * @param port - the port to listen on
+   * @return the control server, not yet started
+   */
+  ControlServer newControlServer(int port) throws IOException {
+    return new ControlServer(port)
+        .addHandler("/metrics", this::handleMetrics)
+        .addHandler("/trace", this::handleTrace)
+        .addHandler(ControlJobs.ROUTE, exchange -> getJobs().handleJobs(exchange));
+  }
+
+  /** Record the number of active and pending contracts, after processing the ledger's changes */
+  private void countContracts(ActiveContracts contracts, int pending) {
+    Map<Identifier, Integer> counts = new HashMap<>();
+    for (Identifier templateId : filterTemplateIds) {
+      counts.put(templateId, contracts.getContracts(templateId).size());
+    }
+    contractCounts = counts;
+    pendingCount = pending;
+  }
+
+  /**
+   * Control route reporting the bot's runtime metrics, in the Prometheus text format
+   *
+   * @param exchange - the request
+   * @return the metrics of the bot, and of the JVM
+   */
+  ControlServer.ControlResult handleMetrics(HttpExchange exchange) {
+    String labels = PrometheusText.labels("party", getParty());
+    Map<String, Integer> contracts = new TreeMap<>();
+    contractCounts.forEach((t, n) -> contracts.put(identifierToString(t), n));
+
+    PrometheusText metrics =
+        new PrometheusText()
+            .summary(
+                "repo_bot_process_seconds",
+                "Time to process a ledger view, or a batch of events when event driven.",
+                labels,
+                processLatency)
+            .gauge(
+                "repo_bot_contracts",
+                "Active contracts seen by the bot, by template.",
+                labels,
+                "template",
+                contracts)
+            .counter(
+                "repo_bot_commands_emitted_total",
+                "Commands computed by the bot from the ledger's contracts.",
+                labels,
+                commandsEmitted.get());
+    TemplateDecoders d = decoders;
+    if (d != null) {
+      metrics
+          .counter(
+              "repo_bot_decoded_total",
+              "Contracts decoded from their create arguments, by template.",
+              labels,
+              "template",
+              d.getDecodeCounts())
+          .counter(
+              "repo_bot_decode_seconds_total",
+              "Time spent decoding contracts, by template.",
+              labels,
+              "template",
+              d.getDecodeSeconds());
+    }
+    if (mainClass.isEventDriven()) {
+      metrics.gauge(
+          "repo_bot_pending_contracts",
+          "Contracts hidden by commands awaiting completion.",
+          labels,
+          pendingCount);
+    }
+
+    CommandSubmitter s;
+    synchronized (this) {
+      s = submitter;
+    }
+    metrics
+        .counter(
+            "repo_bot_commands_submitted_total",
+            "Commands submitted by the bot's command submitter.",
+            labels,
+            s == null ? 0 : s.getSubmittedCount())
+        .counter(
+            "repo_bot_commands_failed_total",
+            "Submitted commands rejected by the ledger, or failed on submission.",
+            labels,
+            s == null ? 0 : s.getFailedCount())
+        .gauge(
+            "repo_bot_commands_in_flight",
+            "Submitted commands awaiting completion.",
+            labels,
+            s == null ? 0 : s.getInFlightCount())
+        .summary(
+            "repo_bot_submission_seconds",
+            "Time from submission to completion of a command.",
+            labels,
+            s == null ? new LatencyHistogram() : s.getLatency())
+        .jvm();
+
+    exchange.getResponseHeaders().set("Content-Type", PrometheusText.CONTENT_TYPE);
+    return new ControlServer.ControlResult(200, metrics.toString());
+  }
+
+  /**
+   * Control route reporting the settlement trace of this process, when started with --trace
+   *
+   * @param exchange - the request
+   * @return the depth and latencies of each stage
+   */
+  ControlServer.ControlResult handleTrace(HttpExchange exchange) {
+    SettlementTracer tracer = mainClass.getSettlementTracer();
+    if (!tracer.isEnabled()) {
+      return new ControlServer.ControlResult(404, "Tracing not enabled, start with --trace\n");
+    }
+    return new ControlServer.ControlResult(200, tracer.report());
+  }
+
   public RepoTradingMain getMainClass() {
     return mainClass;
   }
@@ -234,11 +834,11 @@ public abstract class RepoMarketBot {
     return mainClass.getClient();
   }
 
-  private static String identifierToString(Identifier identifier) {
+  static String identifierToString(Identifier identifier) {
     return identifier.getModuleName().concat(":").concat(identifier.getEntityName());
   }
 
-  protected LocalDate toLocalDate(Instant instant) {
+  protected static LocalDate toLocalDate(Instant instant) {
     return instant.atZone(ZoneOffset.UTC).toLocalDate();
   }
 }
@@ -6,10 +6,14 @@ package com.digitalasset.examples.repoTrading;
 
 import com.daml.ledger.rxjava.DamlLedgerClient;
 import com.digitalasset.examples.repoTrading.util.Configuration;
+import com.digitalasset.examples.repoTrading.util.ControlJobs;
 import java.io.File;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -28,7 +32,8 @@ public class RepoTradingMain {
   private static final Logger log = LoggerFactory.getLogger(RepoTradingMain.class);
 
   private static List<String> COMMAND_VERBS =
-      Arrays.asList("operator", "ccp", "paymentProcessor", "tradingParticipant", "all");
+      Arrays.asList(
+          "operator", "ccp", "paymentProcessor", "tradingParticipant", "all", "generateTrades");
 
   // Party names
 
@@ -63,12 +68,55 @@ public class RepoTradingMain {
       usage = "configuration file to load")
   private File configFile = new File("config.yaml");
 
+  @Option(
+      name = "--eventDriven",
+      usage = "run the bots from ledger events rather than rescanning the ledger view (default)")
+  private boolean eventDriven = false;
+
+  @Option(
+      name = "--ledgerView",
+      usage = "run the bots by rescanning the ledger view rather than from ledger events")
+  private boolean ledgerView = false;
+
+  @Option(
+      name = "--maxInFlight",
+      metaVar = "COMMANDS",
+      usage = "maximum number of commands each bot has submitted and awaiting completion")
+  private int maxInFlight = 100;
+
+  @Option(
+      name = "--trace",
+      usage = "trace each trade through settlement, with latency histograms per stage")
+  private boolean trace = false;
+
+  @Option(
+      name = "--jobThreads",
+      metaVar = "THREADS",
+      usage =
+          "threads to run control jobs such as settlement on, or 0 for a thread per job, virtual"
+              + " where supported (default 0)")
+  private int jobThreads = 0;
+
+  @Option(
+      name = "--snapshot",
+      metaVar = "FILE",
+      usage =
+          "when event driven, restart from this snapshot of the bots' contracts and ledger offset,"
+              + " and keep it up to date")
+  private File snapshotFile = null;
+
+  @Option(
+      name = "--snapshotInterval",
+      metaVar = "SECONDS",
+      usage = "seconds between writes of the snapshot (default 60)")
+  private int snapshotInterval = 60;
+
   @Argument(
       index = 0,
       required = true,
       metaVar = "COMMAND",
       usage =
-          "the type of bot to run: one of 'operator', 'ccp', 'paymentProcessor', or 'tradingParticipant' or 'all'")
+          "the type of bot to run: one of 'operator', 'ccp', 'paymentProcessor', or 'tradingParticipant' or 'all', or 'generateTrades' to write a trade file")
   private String command = "all";
 
   private String ledgerId;
@@ -77,6 +125,14 @@ public class RepoTradingMain {
 
   private Configuration configuration;
 
+  private final TradeFeed tradeFeed = new TradeFeed();
+
+  private final LedgerSubscription ledgerSubscription = new LedgerSubscription();
+
+  private SettlementTracer settlementTracer;
+
+  private ExecutorService jobExecutor = null;
+
   // Methods
 
   public static void main(String[] args) {
@@ -105,6 +161,27 @@ public class RepoTradingMain {
     String[] botArgs = Arrays.copyOfRange(args, cmdArgs.length, args.length);
 
     if (!parseArguments(this, cmdArgs)) return 1;
+    if (maxInFlight < 1 || jobThreads < 0) {
+      logError("", "--maxInFlight must be at least 1, and --jobThreads must not be negative");
+      return 1;
+    }
+    if (eventDriven && ledgerView) {
+      logError("", "--eventDriven and --ledgerView cannot be used together");
+      return 1;
+    }
+    if (snapshotFile != null && (ledgerView || snapshotInterval < 1)) {
+      logError("", "--snapshot requires event driven bots, and --snapshotInterval at least 1");
+      return 1;
+    }
+
+    if (command.equals("generateTrades")) {
+      // Runs offline, and exits once the file is written
+      exitFlag = true;
+      List<String> parties =
+          new ArrayList<>(new Configuration(configFile).getTradingParties().keySet());
+      Collections.sort(parties);
+      return new TradeGenerator(parties).run(botArgs);
+    }
 
     DamlLedgerClient ledgerClient = DamlLedgerClient.newBuilder(host, port).build();
     waitForSandbox(ledgerClient, host, port);
@@ -114,16 +191,25 @@ public class RepoTradingMain {
 
   public int startBots(DamlLedgerClient ledgerClient, String[] botArgs) throws Exception {
     this.client = ledgerClient;
+    this.settlementTracer = new SettlementTracer(trace);
 
     configuration = new Configuration(configFile);
 
     ledgerId = ledgerClient.getLedgerId();
 
+    if (snapshotFile != null) {
+      ledgerSubscription.enableSnapshots(
+          new LedgerSnapshot(snapshotFile.toPath()), snapshotInterval);
+    }
+
     if (command.equals("all")) {
       String[] tradingBotArgs = new String[botArgs.length + 1];
       System.arraycopy(botArgs, 0, tradingBotArgs, 1, botArgs.length);
 
-      System.out.println("Starting all bots defined in the config file");
+      System.out.println(
+          isEventDriven()
+              ? "Starting all bots defined in the config file, sharing one ledger subscription"
+              : "Starting all bots defined in the config file, each with its own ledger view");
       for (String party : configuration.getTradingParties().keySet()) {
         tradingBotArgs[0] = party;
         new TradingParticipantBot(this, null).run(tradingBotArgs);
@@ -132,6 +218,7 @@ public class RepoTradingMain {
       new ClearingHouseBot(this, getCcpName()).run(new String[0]);
       new PaymentProcessorBot(this, getPaymentProcessorName()).run(new String[0]);
 
+      ledgerSubscription.start(ledgerClient);
       return 0;
     } else {
       RepoMarketBot myBot = null;
@@ -158,7 +245,11 @@ public class RepoTradingMain {
         logError(command, "unknown command");
         return 2;
       }
-      return myBot.run(botArgs);
+      int rc = myBot.run(botArgs);
+      if (rc == 0) {
+        ledgerSubscription.start(ledgerClient);
+      }
+      return rc;
     }
   }
 
@@ -232,6 +323,34 @@ public class RepoTradingMain {
     return configuration;
   }
 
+  TradeFeed getTradeFeed() {
+    return tradeFeed;
+  }
+
+  LedgerSubscription getLedgerSubscription() {
+    return ledgerSubscription;
+  }
+
+  SettlementTracer getSettlementTracer() {
+    return settlementTracer;
+  }
+
+  /** @return the executor running the control jobs of all bots, created on first use */
+  synchronized ExecutorService getJobExecutor() {
+    if (jobExecutor == null) {
+      jobExecutor = ControlJobs.newExecutor(jobThreads);
+    }
+    return jobExecutor;
+  }
+
+  public boolean isEventDriven() {
+    return !ledgerView;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
   // Logging
 
   public static synchronized void logMessage(String command, String message) {
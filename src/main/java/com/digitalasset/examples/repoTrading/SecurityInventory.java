@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import main.security.Security;
+
+/**
+ * The securities held by a party, indexed by CUSIP and sorted by quantity. The inventory is
+ * maintained from Security creation and archive events.
+ *
+ * <p>Lots handed out by {@link #reserve(String, BigDecimal)} are held back from later reservations
+ * until they are archived, so a single allocation pass never uses a lot twice. The lots of an
+ * allocation are pending while its command is in flight, which archives them here, and if the
+ * command fails they are created again, which returns them to the inventory.
+ */
+class SecurityInventory implements RepoMarketBot.ContractListener {
+
+  private static class Lot {
+    final String contractId;
+    final String cusip;
+    final BigDecimal quantity;
+
+    Lot(String contractId, String cusip, BigDecimal quantity) {
+      this.contractId = contractId;
+      this.cusip = cusip;
+      this.quantity = quantity;
+    }
+  }
+
+  private static final Comparator<Lot> BY_QUANTITY =
+      Comparator.<Lot, BigDecimal>comparing(l -> l.quantity).thenComparing(l -> l.contractId);
+
+  private final String owner;
+
+  private final Map<String, Lot> lots = new HashMap<>(); // All lots, by contractId
+  private final Map<String, Lot> reserved = new HashMap<>(); // Reserved lots, by contractId
+  private final Map<String, TreeSet<Lot>> availableByCusip = new HashMap<>();
+  private final Map<String, BigDecimal> availableQuantity = new HashMap<>();
+
+  SecurityInventory(String owner) {
+    this.owner = owner;
+  }
+
+  @Override
+  public void created(String contractId, Template contract) {
+    Security security = (Security) contract;
+    if (security.owner.equals(owner)) {
+      Lot lot = new Lot(contractId, security.cusip, security.collateralQuantity);
+      lots.put(contractId, lot);
+      makeAvailable(lot);
+    }
+  }
+
+  @Override
+  public void archived(String contractId) {
+    Lot lot = lots.remove(contractId);
+    if (lot != null && reserved.remove(contractId) == null) {
+      makeUnavailable(lot);
+    }
+  }
+
+  /**
+   * Reserve lots of a CUSIP that together cover a quantity. A single lot is used where one is large
+   * enough, choosing the smallest that fits. Otherwise the largest lots are combined, to keep the
+   * number of lots merged by the allocation small.
+   *
+   * @param cusip - the security required
+   * @param quantity - the quantity required
+   * @return the contractIds of the reserved lots, or empty if there are not enough securities
+   */
+  Optional<List<String>> reserve(String cusip, BigDecimal quantity) {
+    TreeSet<Lot> available = availableByCusip.get(cusip);
+    if (available == null || availableQuantity(cusip).compareTo(quantity) < 0) {
+      return Optional.empty();
+    }
+
+    List<Lot> allocated = new ArrayList<>();
+    Lot fit = available.ceiling(new Lot("", cusip, quantity));
+    if (fit != null) {
+      allocated.add(fit);
+    } else {
+      BigDecimal sum = BigDecimal.ZERO;
+      for (Iterator<Lot> iter = available.descendingIterator();
+          iter.hasNext() && sum.compareTo(quantity) < 0; ) {
+        Lot lot = iter.next();
+        sum = sum.add(lot.quantity);
+        allocated.add(lot);
+      }
+    }
+
+    List<String> contractIds = new ArrayList<>(allocated.size());
+    for (Lot lot : allocated) {
+      makeUnavailable(lot);
+      reserved.put(lot.contractId, lot);
+      contractIds.add(lot.contractId);
+    }
+    return Optional.of(contractIds);
+  }
+
+  BigDecimal availableQuantity(String cusip) {
+    return availableQuantity.getOrDefault(cusip, BigDecimal.ZERO);
+  }
+
+  int size() {
+    return lots.size();
+  }
+
+  private void makeAvailable(Lot lot) {
+    availableByCusip.computeIfAbsent(lot.cusip, k -> new TreeSet<>(BY_QUANTITY)).add(lot);
+    availableQuantity.merge(lot.cusip, lot.quantity, BigDecimal::add);
+  }
+
+  private void makeUnavailable(Lot lot) {
+    TreeSet<Lot> available = availableByCusip.get(lot.cusip);
+    if (available != null && available.remove(lot)) {
+      availableQuantity.merge(lot.cusip, lot.quantity, BigDecimal::subtract);
+      if (available.isEmpty()) {
+        availableByCusip.remove(lot.cusip);
+        availableQuantity.remove(lot.cusip);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The settlement of the trades of a single settlement date, from novation through netting to the
+ * settled DvPs. Each date has its own cycle, with its own counters and netting progress, so the
+ * trades of several dates net and settle in parallel.
+ *
+ * <p>Trades are novated by the bot thread, or by a control job, and everything else happens on the
+ * bot thread.
+ */
+class SettlementCycle {
+
+  final LocalDate settlementDate;
+
+  private final int settledDvpBase; // SettledDvPs for the date before this cycle
+  private final AtomicInteger tradesNovatedCount = new AtomicInteger(); // Trades submitted
+  private volatile boolean novationFailed = false; // A novation command has failed
+  private final Map<String, Template> novatedTrades = new HashMap<>(); // Active, of this date
+  private NettingProgress nettingProgress = null; // Netting groups formed so far
+
+  /**
+   * @param settlementDate - the date settled
+   * @param settledDvpBase - the number of SettledDvPs of the date before the cycle starts
+   */
+  SettlementCycle(LocalDate settlementDate, int settledDvpBase) {
+    this.settlementDate = settlementDate;
+    this.settledDvpBase = settledDvpBase;
+  }
+
+  /** @param count - the number of trades in a novation command */
+  void tradesNovated(int count) {
+    tradesNovatedCount.addAndGet(count);
+  }
+
+  /**
+   * A novation command has failed. Its trades were not novated, so they are no longer awaited.
+   *
+   * @param count - the number of trades in the command
+   */
+  void novationFailed(int count) {
+    novationFailed = true;
+    tradesNovatedCount.addAndGet(-count);
+  }
+
+  int getTradesNovatedCount() {
+    return tradesNovatedCount.get();
+  }
+
+  /**
+   * A novated trade of the date has appeared, either novated or returned by a failed netting
+   * command.
+   */
+  void novatedTradeCreated(String contractId, Template contract) {
+    novatedTrades.put(contractId, contract);
+    if (nettingProgress != null) {
+      nettingProgress.tradeReturned(contractId);
+    }
+  }
+
+  void novatedTradeArchived(String contractId) {
+    novatedTrades.remove(contractId);
+  }
+
+  /**
+   * @return true if netting has not started, and all the trades have been novated - that is, the
+   *     count of NovatedTrades is double the count of trades novated
+   */
+  boolean isReadyToNet() {
+    return nettingProgress == null
+        && !novatedTrades.isEmpty()
+        && novatedTrades.size() == 2 * tradesNovatedCount.get();
+  }
+
+  /**
+   * @return true if netting has not started, and every novation command submitted has failed, so
+   *     there is nothing to net
+   */
+  boolean isNovationFailed() {
+    return nettingProgress == null && novationFailed && tradesNovatedCount.get() == 0;
+  }
+
+  /**
+   * Group the novated trades by their netting key, to be formed into netting groups.
+   *
+   * @param chunkSize - the maximum number of groups formed by one command
+   * @return the progress of netting
+   */
+  NettingProgress startNetting(int chunkSize) {
+    nettingProgress = new NettingProgress(NettingKey.group(novatedTrades), chunkSize);
+    return nettingProgress;
+  }
+
+  /** @return the progress of netting, or null if it has not started */
+  NettingProgress getNettingProgress() {
+    return nettingProgress;
+  }
+
+  /**
+   * @param settledDvpCount - the number of SettledDvPs of the date
+   * @return the number of SettledDvPs created by this cycle
+   */
+  int settledDvps(int settledDvpCount) {
+    return settledDvpCount - settledDvpBase;
+  }
+
+  /**
+   * @param settledDvpCount - the number of SettledDvPs of the date
+   * @return true if every netting group has been formed, and each of their DvPs settled
+   */
+  boolean isComplete(int settledDvpCount) {
+    return nettingProgress != null
+        && nettingProgress.isComplete()
+        && settledDvps(settledDvpCount) == nettingProgress.getGroupCount();
+  }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.Template;
+import com.digitalasset.examples.repoTrading.util.LatencyHistogram;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import main.dvp.AllocatedDvP;
+import main.dvp.CashAllocatedDvP;
+import main.dvp.DvP;
+import main.dvp.SettledDvP;
+import main.netobligation.NetObligation;
+import main.netobligation.NetObligationRequest;
+import main.netting.NettingGroup;
+import main.trade.NovatedTrade;
+import main.trade.Trade;
+import main.trade.TradeRegistrationRequest;
+
+/**
+ * Traces trades through settlement, timing each stage as the bots in this process observe it.
+ *
+ * <p>Up to novation a trade is followed by its tradeId. Each trade is then novated into two
+ * NovatedTrades, one per participant, which are followed by their {@link NettingKey} through
+ * netting and DvP settlement. The latency of each stage is measured from the stage before it that
+ * was observed, and the end to end latency of a netting key from the first of its trades to be
+ * observed. Queue depths count the trades, or from novation the netting keys, that have reached a
+ * stage and not yet moved on.
+ *
+ * <p>Each contract is traced on the first observation of its stage, so several bots may observe the
+ * same contract. A settled netting key is kept for {@link #SETTLED_RETENTION_NANOS}, to ignore
+ * further observations of its settlement, and any trace that has not moved on for {@link
+ * #STALE_NANOS}, such as a trade that failed registration or was never settled, is dropped, so the
+ * tracer's state stays bounded in long runs. A disabled tracer does nothing.
+ */
+class SettlementTracer {
+
+  enum Stage {
+    INJECTED,
+    REQUESTED,
+    TRADE,
+    NOVATED,
+    NETTING_GROUP,
+    NET_OBLIGATION_REQUEST,
+    NET_OBLIGATION,
+    DVP,
+    CASH_ALLOCATED_DVP,
+    ALLOCATED_DVP,
+    SETTLED_DVP
+  }
+
+  private static class Trace {
+    Stage stage;
+    long stageTime;
+    long startTime;
+    int novations = 0;
+
+    Trace(Stage stage, long time) {
+      this.stage = stage;
+      this.stageTime = time;
+      this.startTime = time;
+    }
+  }
+
+  static final long SETTLED_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+  static final long STALE_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final boolean enabled;
+  private final LongSupplier nanoClock;
+  private long lastSweep;
+
+  private final Map<Long, Trace> trades = new HashMap<>(); // Traces by tradeId, until novated
+  private final Map<NettingKey, Trace> keys = new HashMap<>(); // Traces by netting key
+  private final Map<String, NettingKey> novatedKeys = new HashMap<>(); // By NovatedTrade id
+
+  private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+  private final LatencyHistogram endToEnd = new LatencyHistogram();
+  private final long[] depths = new long[Stage.values().length];
+
+  SettlementTracer(boolean enabled) {
+    this(enabled, System::nanoTime);
+  }
+
+  /**
+   * @param enabled - false for a tracer that does nothing
+   * @param nanoClock - the time source, in nanoseconds
+   */
+  SettlementTracer(boolean enabled, LongSupplier nanoClock) {
+    this.enabled = enabled;
+    this.nanoClock = nanoClock;
+    this.lastSweep = nanoClock.getAsLong();
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Trace the contracts a bot receives. Only the templates the bot already uses are observed, so
+   * tracing never widens the bot's transaction filter.
+   *
+   * @param bot - a bot of this process
+   */
+  void attach(RepoMarketBot bot) {
+    if (!enabled) {
+      return;
+    }
+    if (bot.handles(TradeRegistrationRequest.TEMPLATE_ID)) {
+      bot.observeCreated(
+          TradeRegistrationRequest.TEMPLATE_ID,
+          c -> tradeStage(((TradeRegistrationRequest) c).tradeInfo.tradeId, Stage.REQUESTED));
+    }
+    if (bot.handles(Trade.TEMPLATE_ID)) {
+      bot.observeCreated(
+          Trade.TEMPLATE_ID, c -> tradeStage(((Trade) c).tradeInfo.tradeId, Stage.TRADE));
+    }
+    if (bot.handles(NovatedTrade.TEMPLATE_ID)) {
+      bot.addContractListener(NovatedTrade.TEMPLATE_ID, RepoMarketBot.onCreated(this::novated));
+    }
+    if (bot.handles(NettingGroup.TEMPLATE_ID)) {
+      bot.addContractListener(
+          NettingGroup.TEMPLATE_ID, RepoMarketBot.onCreated(this::nettingGroup));
+    }
+    observeKey(
+        bot,
+        NetObligationRequest.TEMPLATE_ID,
+        Stage.NET_OBLIGATION_REQUEST,
+        c -> {
+          NetObligationRequest r = (NetObligationRequest) c;
+          return new NettingKey(r.settlementDate, r.participantId, r.cusip, r.currency);
+        });
+    observeKey(
+        bot,
+        NetObligation.TEMPLATE_ID,
+        Stage.NET_OBLIGATION,
+        c -> {
+          NetObligation o = (NetObligation) c;
+          return key(o.ccp, o.payer, o.receiver, o.settlementDate, o.cusip, o.currency);
+        });
+    observeKey(
+        bot,
+        DvP.TEMPLATE_ID,
+        Stage.DVP,
+        c -> {
+          DvP d = (DvP) c;
+          return key(d.ccp, d.payer, d.receiver, d.settlementDate, d.cusip, d.currency);
+        });
+    observeKey(
+        bot,
+        CashAllocatedDvP.TEMPLATE_ID,
+        Stage.CASH_ALLOCATED_DVP,
+        c -> {
+          CashAllocatedDvP d = (CashAllocatedDvP) c;
+          return key(d.ccp, d.payer, d.receiver, d.settlementDate, d.cusip, d.currency);
+        });
+    observeKey(
+        bot,
+        AllocatedDvP.TEMPLATE_ID,
+        Stage.ALLOCATED_DVP,
+        c -> {
+          AllocatedDvP d = (AllocatedDvP) c;
+          return key(d.ccp, d.payer, d.receiver, d.settlementDate, d.cusip, d.currency);
+        });
+    observeKey(
+        bot,
+        SettledDvP.TEMPLATE_ID,
+        Stage.SETTLED_DVP,
+        c -> {
+          SettledDvP d = (SettledDvP) c;
+          return key(d.ccp, d.payer, d.receiver, d.settlementDate, d.cusip, d.currency);
+        });
+  }
+
+  private void observeKey(
+      RepoMarketBot bot,
+      Identifier templateId,
+      Stage stage,
+      Function<Template, NettingKey> key) {
+    if (bot.handles(templateId)) {
+      bot.observeCreated(templateId, c -> keyStage(key.apply(c), stage));
+    }
+  }
+
+  /** @param tradeId - a trade read from a trade file, about to be requested */
+  void injected(long tradeId) {
+    if (enabled) {
+      tradeStage(tradeId, Stage.INJECTED);
+    }
+  }
+
+  /** @return the netting key of an obligation or DvP between the CCP and a participant */
+  private static NettingKey key(
+      String ccp,
+      String payer,
+      String receiver,
+      Instant settlementDate,
+      String cusip,
+      String currency) {
+    return new NettingKey(settlementDate, payer.equals(ccp) ? receiver : payer, cusip, currency);
+  }
+
+  private synchronized void tradeStage(long tradeId, Stage stage) {
+    long now = now();
+    Trace trace = trades.get(tradeId);
+    if (trace == null) {
+      trades.put(tradeId, new Trace(stage, now));
+      depths[stage.ordinal()]++;
+    } else if (stage.compareTo(trace.stage) > 0) {
+      advance(trace, stage, now);
+    }
+  }
+
+  private synchronized void novated(String contractId, Template contract) {
+    long now = now();
+    NovatedTrade novatedTrade = (NovatedTrade) contract;
+    NettingKey key = NettingKey.of(novatedTrade);
+    if (novatedKeys.put(contractId, key) != null) {
+      return; // Observed by another bot
+    }
+
+    long startTime = now;
+    Trace trade = trades.get(novatedTrade.tradeInfo.tradeId);
+    if (trade != null) {
+      startTime = trade.startTime;
+      if (trade.stage != Stage.NOVATED) {
+        advance(trade, Stage.NOVATED, now);
+        depths[Stage.NOVATED.ordinal()]--; // Counted by netting key from here
+      }
+      if (++trade.novations == 2) {
+        trades.remove(novatedTrade.tradeInfo.tradeId);
+      }
+    }
+
+    // A key reaches the novated stage when its last trade does
+    Trace trace = keys.get(key);
+    if (trace == null || trace.stage == Stage.SETTLED_DVP) {
+      trace = new Trace(Stage.NOVATED, now);
+      keys.put(key, trace);
+      depths[Stage.NOVATED.ordinal()]++;
+    }
+    trace.stageTime = Math.max(trace.stageTime, now);
+    trace.startTime = Math.min(trace.startTime, startTime);
+  }
+
+  private synchronized void nettingGroup(String contractId, Template contract) {
+    NettingKey key = null;
+    for (String novatedTradeId : NettingProgress.tradeIds(contract)) {
+      NettingKey k = novatedKeys.remove(novatedTradeId);
+      key = key == null ? k : key;
+    }
+    if (key != null) {
+      keyStage(key, Stage.NETTING_GROUP);
+    }
+  }
+
+  private synchronized void keyStage(NettingKey key, Stage stage) {
+    long now = now();
+    Trace trace = keys.get(key);
+    if (trace == null || (trace.stage == Stage.SETTLED_DVP && stage != Stage.SETTLED_DVP)) {
+      // First seen after novation, e.g. novated before this process started, or in a new cycle
+      keys.put(key, new Trace(stage, now));
+      if (stage != Stage.SETTLED_DVP) {
+        depths[stage.ordinal()]++;
+      }
+    } else if (stage.compareTo(trace.stage) > 0) {
+      advance(trace, stage, now);
+      if (stage == Stage.SETTLED_DVP) {
+        endToEnd.record(now - trace.startTime);
+        depths[stage.ordinal()]--; // Settled keys are kept only to ignore repeated observations
+      }
+    }
+  }
+
+  /** @return the time now, first dropping the traces that are due, if a sweep is due */
+  private long now() {
+    long now = nanoClock.getAsLong();
+    if (now - lastSweep >= SWEEP_INTERVAL_NANOS) {
+      lastSweep = now;
+      sweep(now);
+    }
+    return now;
+  }
+
+  /** Drop settled netting keys once past their retention, and traces that have gone stale */
+  private void sweep(long now) {
+    trades
+        .values()
+        .removeIf(
+            trace -> {
+              if (now - trace.stageTime < STALE_NANOS) {
+                return false;
+              }
+              if (trace.stage != Stage.NOVATED) { // Counted by netting key once novated
+                depths[trace.stage.ordinal()]--;
+              }
+              return true;
+            });
+    keys.values()
+        .removeIf(
+            trace -> {
+              if (trace.stage == Stage.SETTLED_DVP) {
+                return now - trace.stageTime >= SETTLED_RETENTION_NANOS;
+              }
+              if (now - trace.stageTime < STALE_NANOS) {
+                return false;
+              }
+              depths[trace.stage.ordinal()]--;
+              return true;
+            });
+    // NovatedTrades are followed until their netting group forms, while their key is traced
+    novatedKeys
+        .values()
+        .removeIf(
+            key -> {
+              Trace trace = keys.get(key);
+              return trace == null || trace.stage.compareTo(Stage.NETTING_GROUP) >= 0;
+            });
+  }
+
+  /** @return the number of trades, netting keys and NovatedTrades traced */
+  synchronized int getTraceCount() {
+    return trades.size() + keys.size() + novatedKeys.size();
+  }
+
+  private void advance(Trace trace, Stage stage, long now) {
+    latencies[stage.ordinal()].record(now - trace.stageTime);
+    depths[trace.stage.ordinal()]--;
+    depths[stage.ordinal()]++;
+    trace.stage = stage;
+    trace.stageTime = now;
+  }
+
+  /** @return the latency from the stage observed before it, of each stage */
+  LatencyHistogram getLatency(Stage stage) {
+    return latencies[stage.ordinal()];
+  }
+
+  /** @return the latency of each netting key from its first trade to settlement */
+  LatencyHistogram getEndToEndLatency() {
+    return endToEnd;
+  }
+
+  /** @return the number of trades, or netting keys, at a stage */
+  synchronized long getDepth(Stage stage) {
+    return depths[stage.ordinal()];
+  }
+
+  /** @return a table of the depth and latency percentiles of each stage, in milliseconds */
+  String report() {
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "%-24s %8s %10s %10s %10s %10s %10s%n",
+            "stage", "depth", "count", "p50", "p90", "p99", "max"));
+    for (Stage stage : Stage.values()) {
+      appendRow(report, stage.name(), getDepth(stage), latencies[stage.ordinal()]);
+    }
+    appendRow(report, "END_TO_END", 0, endToEnd);
+    return report.toString();
+  }
+
+  private static void appendRow(
+      StringBuilder report, String name, long depth, LatencyHistogram latency) {
+    report.append(
+        String.format(
+            "%-24s %8d %10d %10.1f %10.1f %10.1f %10.1f%n",
+            name,
+            depth,
+            latency.getCount(),
+            millis(latency.getPercentile(50)),
+            millis(latency.getPercentile(90)),
+            millis(latency.getPercentile(99)),
+            millis(latency.getMax())));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Identifier;
+import com.daml.ledger.javaapi.data.Record;
+import com.daml.ledger.javaapi.data.Template;
+import com.daml.ledger.javaapi.data.Value;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import main.cash.Cash;
+import main.cash.LockedCash;
+import main.cashrequest.CashRequest;
+import main.ccp.CCP;
+import main.ccp.CCPInvite;
+import main.ccp.InitiateSettlementControl;
+import main.ccp.InviteClearingHouse;
+import main.dvp.AllocatedDvP;
+import main.dvp.CashAllocatedDvP;
+import main.dvp.DvP;
+import main.dvp.SettledDvP;
+import main.genesis.Genesis;
+import main.netobligation.NetObligation;
+import main.netobligation.NetObligationRequest;
+import main.netting.NettingGroup;
+import main.security.MergedSecurity;
+import main.security.Security;
+import main.trade.NovatedTrade;
+import main.trade.Trade;
+import main.trade.TradeRegistrationRequest;
+import main.tradingparticipant.InviteTradingParticipant;
+import main.tradingparticipant.TradingParticipant;
+
+/**
+ * Decodes the contracts of a bot's templates into their generated classes. The decoders are looked
+ * up once when the bot starts, for the templates of its transaction filter only, and the decoding
+ * of each template is counted and timed.
+ */
+class TemplateDecoders {
+
+  private static final Map<Identifier, Function<Value, Template>> ALL_DECODERS = new HashMap<>();
+
+  static {
+    ALL_DECODERS.put(Cash.TEMPLATE_ID, Cash::fromValue);
+    ALL_DECODERS.put(LockedCash.TEMPLATE_ID, LockedCash::fromValue);
+    ALL_DECODERS.put(Security.TEMPLATE_ID, Security::fromValue);
+    ALL_DECODERS.put(MergedSecurity.TEMPLATE_ID, MergedSecurity::fromValue);
+    ALL_DECODERS.put(NovatedTrade.TEMPLATE_ID, NovatedTrade::fromValue);
+    ALL_DECODERS.put(DvP.TEMPLATE_ID, DvP::fromValue);
+    ALL_DECODERS.put(CashAllocatedDvP.TEMPLATE_ID, CashAllocatedDvP::fromValue);
+    ALL_DECODERS.put(AllocatedDvP.TEMPLATE_ID, AllocatedDvP::fromValue);
+    ALL_DECODERS.put(SettledDvP.TEMPLATE_ID, SettledDvP::fromValue);
+    ALL_DECODERS.put(NetObligationRequest.TEMPLATE_ID, NetObligationRequest::fromValue);
+    ALL_DECODERS.put(NetObligation.TEMPLATE_ID, NetObligation::fromValue);
+    ALL_DECODERS.put(TradeRegistrationRequest.TEMPLATE_ID, TradeRegistrationRequest::fromValue);
+    ALL_DECODERS.put(Trade.TEMPLATE_ID, Trade::fromValue);
+    ALL_DECODERS.put(Genesis.TEMPLATE_ID, Genesis::fromValue);
+    ALL_DECODERS.put(InviteClearingHouse.TEMPLATE_ID, InviteClearingHouse::fromValue);
+    ALL_DECODERS.put(InitiateSettlementControl.TEMPLATE_ID, InitiateSettlementControl::fromValue);
+    ALL_DECODERS.put(CCPInvite.TEMPLATE_ID, CCPInvite::fromValue);
+    ALL_DECODERS.put(CCP.TEMPLATE_ID, CCP::fromValue);
+    ALL_DECODERS.put(InviteTradingParticipant.TEMPLATE_ID, InviteTradingParticipant::fromValue);
+    ALL_DECODERS.put(TradingParticipant.TEMPLATE_ID, TradingParticipant::fromValue);
+    ALL_DECODERS.put(NettingGroup.TEMPLATE_ID, NettingGroup::fromValue);
+    ALL_DECODERS.put(CashRequest.TEMPLATE_ID, CashRequest::fromValue);
+  }
+
+  /** The decoder of a template, with its counters */
+  private static class Decoder {
+    final Function<Value, Template> fromValue;
+    final AtomicLong decodeCount = new AtomicLong();
+    final AtomicLong decodeNanos = new AtomicLong();
+
+    Decoder(Function<Value, Template> fromValue) {
+      this.fromValue = fromValue;
+    }
+
+    Template decode(Record arguments) {
+      long start = System.nanoTime();
+      Template contract = fromValue.apply(arguments);
+      decodeNanos.addAndGet(System.nanoTime() - start);
+      decodeCount.incrementAndGet();
+      return contract;
+    }
+  }
+
+  private final Map<Identifier, Decoder> decoders = new HashMap<>();
+
+  /** @param templateIds - the templates to decode */
+  TemplateDecoders(Set<Identifier> templateIds) {
+    for (Identifier templateId : templateIds) {
+      decoders.put(templateId, new Decoder(fromValue(templateId)));
+    }
+  }
+
+  private static Function<Value, Template> fromValue(Identifier templateId) {
+    Function<Value, Template> fromValue = ALL_DECODERS.get(templateId);
+    if (fromValue == null) {
+      throw new IllegalArgumentException("No decoder for template " + name(templateId));
+    }
+    return fromValue;
+  }
+
+  /**
+   * Decode the create arguments of a contract into the generated class of its template.
+   *
+   * @param templateId - the contract's template
+   * @param arguments - the contract's create arguments
+   * @return the contract
+   */
+  static Template fromRecord(Identifier templateId, Record arguments) {
+    return fromValue(templateId).apply(arguments);
+  }
+
+  /**
+   * Decode a contract of one of the bot's templates.
+   *
+   * @param templateId - the contract's template
+   * @param arguments - the contract's create arguments
+   * @return the contract
+   */
+  Template decode(Identifier templateId, Record arguments) {
+    Decoder decoder = decoders.get(templateId);
+    if (decoder == null) {
+      throw new IllegalArgumentException("Template not in the filter: " + name(templateId));
+    }
+    return decoder.decode(arguments);
+  }
+
+  /** @return the number of contracts decoded, by template name */
+  Map<String, Long> getDecodeCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    decoders.forEach((t, d) -> counts.put(name(t), d.decodeCount.get()));
+    return counts;
+  }
+
+  /** @return the time spent decoding, in seconds, by template name */
+  Map<String, Double> getDecodeSeconds() {
+    Map<String, Double> seconds = new TreeMap<>();
+    decoders.forEach((t, d) -> seconds.put(name(t), d.decodeNanos.get() / 1e9));
+    return seconds;
+  }
+
+  private static String name(Identifier templateId) {
+    return RepoMarketBot.identifierToString(templateId);
+  }
+}
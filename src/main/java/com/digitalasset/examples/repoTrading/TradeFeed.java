@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.digitalasset.examples.repoTrading.util.CsvFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads trade files once for all the trading participants hosted in this process, passing each
+ * trade to its lender through a bounded queue.
+ *
+ * <p>Participants claim a file when they are asked to inject it. Claims on the same file are
+ * collected into a session, which starts reading when every hosted participant has claimed it, or
+ * when no participant has claimed it for a short join window. A participant that claims a file it
+ * has already claimed in the collecting session, or whose session has started, starts a new one.
+ * The rows of lenders that have not claimed a session are skipped, as when each participant read
+ * the file itself.
+ *
+ * <p>A full queue stops the reader until its participant catches up, so the slowest participant
+ * sets the pace of a session.
+ */
+class TradeFeed {
+
+  private static final Logger log = LoggerFactory.getLogger(TradeFeed.class);
+
+  private static final int QUEUE_CAPACITY = 10_000;
+  private static final long JOIN_WINDOW_MILLIS = 2000;
+
+  private class Session implements Runnable {
+    final File file;
+    final Map<String, BlockingQueue<TradeRequest>> queues = new LinkedHashMap<>();
+    long lastClaimTime;
+
+    Session(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      awaitClaims(this);
+      log.debug("reading trade file {} for {}", file, queues.keySet());
+
+      List<String> lenders = new ArrayList<>(queues.keySet());
+      List<BlockingQueue<TradeRequest>> lenderQueues = new ArrayList<>(queues.values());
+      CsvFile reader = new CsvFile(file);
+      try {
+        reader.open();
+        TradeRequest.Columns columns = new TradeRequest.Columns(reader);
+        CsvFile.Record record = reader.getRecord();
+        while (reader.next()) {
+          for (int i = 0; i < lenders.size(); i++) {
+            if (record.fieldEquals(columns.lender, lenders.get(i))) {
+              lenderQueues.get(i).put(TradeRequest.of(record, columns));
+              break;
+            }
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        log.error("failed reading trade file {}", file, e);
+        RepoTradingMain.logError("", "failed reading trade file " + file + ": " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          reader.close();
+        } catch (IOException | RuntimeException e) {
+          log.warn("Error closing trade reader: {}", e);
+        }
+        lenderQueues.forEach(TradeFeed::end);
+      }
+    }
+  }
+
+  private static void end(BlockingQueue<TradeRequest> queue) {
+    try {
+      queue.put(TradeRequest.END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      queue.offer(TradeRequest.END);
+    }
+  }
+
+  private final Set<String> participants = ConcurrentHashMap.newKeySet();
+  private final Map<String, Session> collecting = new HashMap<>(); // Sessions not yet started
+
+  /** Add a trading participant hosted in this process */
+  void addParticipant(String party) {
+    participants.add(party);
+  }
+
+  /**
+   * Claim the trades of a participant in a file. Ends with {@link TradeRequest#END}.
+   *
+   * @param file - the trade file
+   * @param party - the lender whose trades are wanted
+   * @return the queue of the participant's trades
+   */
+  synchronized BlockingQueue<TradeRequest> claim(File file, String party) throws IOException {
+    String key = file.getCanonicalPath();
+    Session session = collecting.get(key);
+    if (session == null || session.queues.containsKey(party)) {
+      session = new Session(file);
+      collecting.put(key, session);
+      new Thread(session, "tradeFeed").start();
+    }
+
+    BlockingQueue<TradeRequest> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    session.queues.put(party, queue);
+    session.lastClaimTime = System.currentTimeMillis();
+    notifyAll();
+    return queue;
+  }
+
+  private synchronized void awaitClaims(Session session) {
+    long remaining;
+    while (!session.queues.keySet().containsAll(participants)
+        && (remaining = session.lastClaimTime + JOIN_WINDOW_MILLIS - System.currentTimeMillis())
+            > 0) {
+      try {
+        TimeUnit.MILLISECONDS.timedWait(this, remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    collecting.values().remove(session);
+  }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Generates trade files in the layout read by the trading participants, for scale and soak tests.
+ *
+ * <p>Trades are drawn between the configured trading parties. CUSIPs are drawn from a universe of a
+ * given size, either uniformly or with a Zipf skew so that a few CUSIPs carry most trades, and
+ * settlement dates are spread over a number of business days. A share of the trades are generated
+ * in offsetting pairs, the same trade with lender and borrower swapped, which net to zero.
+ *
+ * <p>The output depends only on the options and the parties, so a seed always reproduces the same
+ * file.
+ */
+class TradeGenerator {
+
+  static final String HEADER =
+      "tradeId,lender,borrower,cusip,tradeDate,settlementDate,collateralQuantity,price,term,"
+          + "repoRate,startAmount,endAmount,currency";
+
+  private static final String CUSIP_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+  private static final BigDecimal QUANTITY_STEP = BigDecimal.valueOf(50_000);
+  private static final int MAX_QUANTITY_STEPS = 200;
+  private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+  private static final BigDecimal DAYS_PER_YEAR = BigDecimal.valueOf(360);
+
+  // Argument parsing
+
+  @Option(name = "--trades", metaVar = "COUNT", usage = "Generate COUNT trades (default 1000)")
+  private int tradeCount = 1000;
+
+  @Option(name = "--seed", metaVar = "SEED", usage = "Random seed (default 1)")
+  private long seed = 1;
+
+  @Option(
+      name = "--cusips",
+      metaVar = "COUNT",
+      usage = "Draw CUSIPs from a universe of COUNT securities (default 100)")
+  private int cusipCount = 100;
+
+  @Option(
+      name = "--skew",
+      metaVar = "EXPONENT",
+      usage = "Zipf exponent of the CUSIP distribution, 0 for uniform (default 0)")
+  private double skew = 0;
+
+  @Option(
+      name = "--dates",
+      metaVar = "DAYS",
+      usage = "Spread settlement over DAYS business days (default 1)")
+  private int dateCount = 1;
+
+  @Option(
+      name = "--startDate",
+      metaVar = "DATE",
+      usage = "First settlement date (default 2018-06-28)")
+  private String startDate = "2018-06-28";
+
+  @Option(
+      name = "--netZero",
+      metaVar = "RATIO",
+      usage = "Share of trades, 0 to 1, generated in offsetting pairs that net to zero (default 0)")
+  private double netZeroRatio = 0;
+
+  @Option(name = "--currency", metaVar = "CURRENCY", usage = "Trade currency (default USD)")
+  private String currency = "USD";
+
+  @Argument(index = 0, metaVar = "TRADE_FILE", required = true, usage = "The file to write")
+  private File tradeFile = null;
+
+  // Instance vars
+
+  private final List<String> parties;
+
+  /** @param parties - the trading parties, in a fixed order */
+  TradeGenerator(List<String> parties) {
+    this.parties = parties;
+  }
+
+  public int run(String[] args) throws IOException {
+    if (!RepoTradingMain.parseArguments(this, args)) {
+      return 1;
+    }
+    String error = validate();
+    if (error != null) {
+      RepoTradingMain.logError("generateTrades", error);
+      return 1;
+    }
+
+    try (Writer writer = Files.newBufferedWriter(tradeFile.toPath(), StandardCharsets.UTF_8)) {
+      generate(writer);
+    }
+    RepoTradingMain.logMessage(
+        "generateTrades", String.format("%d trades written to %s", tradeCount, tradeFile));
+    return 0;
+  }
+
+  /** @return a description of the first invalid option, or null if they are all valid */
+  String validate() {
+    if (parties.size() < 2) {
+      return "at least two trading parties are needed";
+    }
+    if (tradeCount < 0 || cusipCount < 1 || dateCount < 1) {
+      return "--trades must not be negative, and --cusips and --dates must be at least 1";
+    }
+    if (skew < 0 || netZeroRatio < 0 || netZeroRatio > 1) {
+      return "--skew must not be negative, and --netZero must be between 0 and 1";
+    }
+    try {
+      LocalDate.parse(startDate);
+    } catch (RuntimeException e) {
+      return "bad --startDate: " + startDate;
+    }
+    return null;
+  }
+
+  /** A generated trade, before its id is assigned */
+  private static class GeneratedTrade {
+    final String lender;
+    final String borrower;
+    final String cusip;
+    final LocalDate settlementDate;
+    final BigDecimal quantity;
+    final BigDecimal price;
+    final BigDecimal repoRate;
+    final int term;
+
+    GeneratedTrade(
+        String lender,
+        String borrower,
+        String cusip,
+        LocalDate settlementDate,
+        BigDecimal quantity,
+        BigDecimal price,
+        BigDecimal repoRate,
+        int term) {
+      this.lender = lender;
+      this.borrower = borrower;
+      this.cusip = cusip;
+      this.settlementDate = settlementDate;
+      this.quantity = quantity;
+      this.price = price;
+      this.repoRate = repoRate;
+      this.term = term;
+    }
+
+    GeneratedTrade reverse() {
+      return new GeneratedTrade(
+          borrower, lender, cusip, settlementDate, quantity, price, repoRate, term);
+    }
+  }
+
+  /**
+   * Write the header and trades.
+   *
+   * @param writer - the destination
+   */
+  void generate(Writer writer) throws IOException {
+    BufferedWriter out =
+        writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer);
+    Random random = new Random(seed);
+    List<String> cusips = cusips(random);
+    double[] cusipWeights = cumulativeWeights(cusipCount);
+    List<LocalDate> dates = settlementDates();
+
+    /*
+     * A trade opens an offsetting pair with probability q, and its reverse is written at a later
+     * random point. Pairs then make up 2q / (1 + q) of the trades, which is the requested ratio.
+     */
+    double pairProbability = netZeroRatio / (2 - netZeroRatio);
+    List<GeneratedTrade> pendingReverses = new ArrayList<>();
+
+    out.write(HEADER);
+    out.newLine();
+    for (int tradeId = 1; tradeId <= tradeCount; tradeId++) {
+      int remaining = tradeCount - tradeId + 1;
+      GeneratedTrade trade;
+      if (!pendingReverses.isEmpty()
+          && (remaining == pendingReverses.size() || random.nextBoolean())) {
+        trade = pendingReverses.remove(random.nextInt(pendingReverses.size()));
+      } else {
+        trade = newTrade(random, cusips, cusipWeights, dates);
+        if (remaining >= pendingReverses.size() + 2 && random.nextDouble() < pairProbability) {
+          pendingReverses.add(trade.reverse());
+        }
+      }
+      write(out, tradeId, trade);
+    }
+    out.flush();
+  }
+
+  private GeneratedTrade newTrade(
+      Random random, List<String> cusips, double[] cusipWeights, List<LocalDate> dates) {
+    int lender = random.nextInt(parties.size());
+    int borrower = (lender + 1 + random.nextInt(parties.size() - 1)) % parties.size();
+    return new GeneratedTrade(
+        parties.get(lender),
+        parties.get(borrower),
+        cusips.get(sample(random, cusipWeights)),
+        dates.get(random.nextInt(dates.size())),
+        QUANTITY_STEP.multiply(BigDecimal.valueOf(1 + random.nextInt(MAX_QUANTITY_STEPS))),
+        BigDecimal.valueOf(90 + random.nextInt(11)),
+        BigDecimal.valueOf(500 + random.nextInt(101), 2),
+        26);
+  }
+
+  private void write(BufferedWriter out, int tradeId, GeneratedTrade trade) throws IOException {
+    BigDecimal startAmount =
+        trade.quantity.multiply(trade.price).divide(HUNDRED, 0, RoundingMode.HALF_EVEN);
+    BigDecimal interest =
+        startAmount
+            .multiply(trade.repoRate)
+            .multiply(BigDecimal.valueOf(trade.term))
+            .divide(HUNDRED.multiply(DAYS_PER_YEAR), 0, RoundingMode.HALF_EVEN);
+
+    out.write(
+        String.join(
+            ",",
+            Integer.toString(tradeId),
+            trade.lender,
+            trade.borrower,
+            trade.cusip,
+            trade.settlementDate.minusDays(3).toString(),
+            trade.settlementDate.toString(),
+            trade.quantity.toPlainString(),
+            trade.price.toPlainString(),
+            Integer.toString(trade.term),
+            trade.repoRate.toPlainString(),
+            startAmount.toPlainString(),
+            startAmount.add(interest).toPlainString(),
+            currency));
+    out.newLine();
+  }
+
+  /** @return distinct eight character CUSIPs, in the order of their Zipf rank */
+  private List<String> cusips(Random random) {
+    Set<String> cusips = new LinkedHashSet<>();
+    char[] cusip = new char[8];
+    while (cusips.size() < cusipCount) {
+      for (int i = 0; i < cusip.length; i++) {
+        cusip[i] = CUSIP_CHARS.charAt(random.nextInt(CUSIP_CHARS.length()));
+      }
+      cusips.add(new String(cusip));
+    }
+    return new ArrayList<>(cusips);
+  }
+
+  /** @return the cumulative Zipf weights of ranks 1 to n, normalised to end at 1 */
+  private double[] cumulativeWeights(int n) {
+    double[] weights = new double[n];
+    double sum = 0;
+    for (int k = 0; k < n; k++) {
+      sum += 1 / Math.pow(k + 1, skew);
+      weights[k] = sum;
+    }
+    for (int k = 0; k < n; k++) {
+      weights[k] /= sum;
+    }
+    return weights;
+  }
+
+  private static int sample(Random random, double[] cumulativeWeights) {
+    int i = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+    return Math.min(i < 0 ? -i - 1 : i, cumulativeWeights.length - 1);
+  }
+
+  /** @return the settlement dates, skipping weekends */
+  private List<LocalDate> settlementDates() {
+    List<LocalDate> dates = new ArrayList<>(dateCount);
+    for (LocalDate date = LocalDate.parse(startDate); dates.size() < dateCount; ) {
+      if (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY) {
+        dates.add(date);
+      }
+      date = date.plusDays(1);
+    }
+    return dates;
+  }
+}
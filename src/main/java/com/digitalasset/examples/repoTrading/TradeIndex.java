@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.daml.ledger.javaapi.data.Template;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import main.trade.Trade;
+
+/**
+ * An index of active trades by settlement date. The index is maintained from trade creation and
+ * archive events, so that each ledger change costs O(log n) rather than a rescan of all trades.
+ * When event driven, the events come straight from the transaction stream. Driven by ledger views,
+ * they are found by diffing each changed view against the last, which remains O(n) per view.
+ *
+ * <p>Secondary indexes by settlement date, participant, CUSIP and currency, and by settlement date
+ * combined with each of the others, serve trade queries. Each holds the contractIds of its trades
+ * in order, for paging, and running totals of the trades. A query with one filter, or a date and
+ * one other filter, reads its totals directly and only the trades of its page. Any other query,
+ * with two or more filters besides the date, reads the trades of its most selective index entry,
+ * checking them against the rest of the filter, and totals them from that entry. Combinations of
+ * those filters are not indexed, as their keys would multiply with every participant, CUSIP and
+ * currency. An entry is removed once its last trade is archived.
+ *
+ * <p>The index is updated by the bot thread, and may be read concurrently by control requests.
+ */
+class TradeIndex implements RepoMarketBot.ContractListener {
+
+  /** Running totals of a set of trades */
+  static class Totals {
+    private long count = 0;
+    private BigDecimal startAmount = BigDecimal.ZERO;
+    private BigDecimal collateralQuantity = BigDecimal.ZERO;
+
+    synchronized void add(Trade trade, int sign) {
+      count += sign;
+      BigDecimal s = BigDecimal.valueOf(sign);
+      startAmount = startAmount.add(trade.tradeInfo.startAmount.multiply(s));
+      collateralQuantity = collateralQuantity.add(trade.tradeInfo.collateralQuantity.multiply(s));
+    }
+
+    synchronized long getCount() {
+      return count;
+    }
+
+    synchronized BigDecimal getStartAmount() {
+      return startAmount;
+    }
+
+    synchronized BigDecimal getCollateralQuantity() {
+      return collateralQuantity;
+    }
+  }
+
+  /** The trades of a key of a secondary index */
+  private static class Posting {
+    final NavigableSet<String> contractIds = new ConcurrentSkipListSet<>();
+    final Totals totals = new Totals();
+  }
+
+  /** Selects trades by any of settlement date, participant, CUSIP and currency */
+  static class TradeFilter {
+    final LocalDate settlementDate;
+    final String participant;
+    final String cusip;
+    final String currency;
+
+    /** Each argument may be null, to select trades with any value */
+    TradeFilter(LocalDate settlementDate, String participant, String cusip, String currency) {
+      this.settlementDate = settlementDate;
+      this.participant = participant;
+      this.cusip = cusip;
+      this.currency = currency;
+    }
+
+    boolean matches(Trade trade) {
+      return (settlementDate == null
+              || settlementDate.equals(RepoMarketBot.toLocalDate(trade.tradeInfo.settlementDate)))
+          && (participant == null
+              || participant.equals(trade.lender)
+              || participant.equals(trade.borrower))
+          && (cusip == null || cusip.equals(trade.tradeInfo.cusip))
+          && (currency == null || currency.equals(trade.tradeInfo.currency));
+    }
+  }
+
+  /** A page of the trades selected by a query, ordered by contractId */
+  static class TradePage {
+    final List<Map.Entry<String, Trade>> trades;
+    final String lastContractId; // null if there are no more trades
+    final Totals totals;
+
+    TradePage(List<Map.Entry<String, Trade>> trades, String lastContractId, Totals totals) {
+      this.trades = trades;
+      this.lastContractId = lastContractId;
+      this.totals = totals;
+    }
+  }
+
+  private final ConcurrentHashMap<LocalDate, Map<String, Template>> tradesPerDate =
+      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Trade> trades = new ConcurrentHashMap<>();
+
+  private final Posting all = new Posting();
+  private final ConcurrentHashMap<LocalDate, Posting> byDate = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Posting> byParticipant = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Posting> byCusip = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Posting> byCurrency = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Map.Entry<LocalDate, String>, Posting> byDateParticipant =
+      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Map.Entry<LocalDate, String>, Posting> byDateCusip =
+      new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Map.Entry<LocalDate, String>, Posting> byDateCurrency =
+      new ConcurrentHashMap<>();
+
+  @Override
+  public void created(String contractId, Template contract) {
+    Trade trade = (Trade) contract;
+    LocalDate date = RepoMarketBot.toLocalDate(trade.tradeInfo.settlementDate);
+    if (trades.put(contractId, trade) != null) {
+      return;
+    }
+    tradesPerDate.computeIfAbsent(date, k -> new ConcurrentHashMap<>()).put(contractId, contract);
+
+    post(all, contractId, trade);
+    post(byDate.computeIfAbsent(date, k -> new Posting()), contractId, trade);
+    post(byParticipant.computeIfAbsent(trade.lender, k -> new Posting()), contractId, trade);
+    if (!trade.borrower.equals(trade.lender)) {
+      post(byParticipant.computeIfAbsent(trade.borrower, k -> new Posting()), contractId, trade);
+    }
+    post(byCusip.computeIfAbsent(trade.tradeInfo.cusip, k -> new Posting()), contractId, trade);
+    post(
+        byCurrency.computeIfAbsent(trade.tradeInfo.currency, k -> new Posting()),
+        contractId,
+        trade);
+    post(
+        byDateParticipant.computeIfAbsent(key(date, trade.lender), k -> new Posting()),
+        contractId,
+        trade);
+    if (!trade.borrower.equals(trade.lender)) {
+      post(
+          byDateParticipant.computeIfAbsent(key(date, trade.borrower), k -> new Posting()),
+          contractId,
+          trade);
+    }
+    post(
+        byDateCusip.computeIfAbsent(key(date, trade.tradeInfo.cusip), k -> new Posting()),
+        contractId,
+        trade);
+    post(
+        byDateCurrency.computeIfAbsent(key(date, trade.tradeInfo.currency), k -> new Posting()),
+        contractId,
+        trade);
+  }
+
+  @Override
+  public void archived(String contractId) {
+    Trade trade = trades.remove(contractId);
+    if (trade == null) {
+      return;
+    }
+    LocalDate date = RepoMarketBot.toLocalDate(trade.tradeInfo.settlementDate);
+    tradesPerDate.computeIfPresent(
+        date,
+        (k, trades) -> {
+          trades.remove(contractId);
+          return trades.isEmpty() ? null : trades;
+        });
+
+    unpost(all, contractId, trade);
+    unpost(byDate, date, contractId, trade);
+    unpost(byParticipant, trade.lender, contractId, trade);
+    if (!trade.borrower.equals(trade.lender)) {
+      unpost(byParticipant, trade.borrower, contractId, trade);
+    }
+    unpost(byCusip, trade.tradeInfo.cusip, contractId, trade);
+    unpost(byCurrency, trade.tradeInfo.currency, contractId, trade);
+    unpost(byDateParticipant, key(date, trade.lender), contractId, trade);
+    if (!trade.borrower.equals(trade.lender)) {
+      unpost(byDateParticipant, key(date, trade.borrower), contractId, trade);
+    }
+    unpost(byDateCusip, key(date, trade.tradeInfo.cusip), contractId, trade);
+    unpost(byDateCurrency, key(date, trade.tradeInfo.currency), contractId, trade);
+  }
+
+  private static Map.Entry<LocalDate, String> key(LocalDate date, String value) {
+    return new AbstractMap.SimpleImmutableEntry<>(date, value);
+  }
+
+  private static void post(Posting posting, String contractId, Trade trade) {
+    posting.contractIds.add(contractId);
+    posting.totals.add(trade, 1);
+  }
+
+  private static void unpost(Posting posting, String contractId, Trade trade) {
+    if (posting != null && posting.contractIds.remove(contractId)) {
+      posting.totals.add(trade, -1);
+    }
+  }
+
+  /** Remove a trade from the posting of a key, and the posting once it has no trades left */
+  private static <K> void unpost(
+      ConcurrentHashMap<K, Posting> postings, K key, String contractId, Trade trade) {
+    postings.computeIfPresent(
+        key,
+        (k, posting) -> {
+          unpost(posting, contractId, trade);
+          return posting.contractIds.isEmpty() ? null : posting;
+        });
+  }
+
+  /** @return the number of keys of the secondary indexes with trades */
+  int getPostingCount() {
+    return byDate.size()
+        + byParticipant.size()
+        + byCusip.size()
+        + byCurrency.size()
+        + byDateParticipant.size()
+        + byDateCusip.size()
+        + byDateCurrency.size();
+  }
+
+  /**
+   * @param date - a settlement date
+   * @return the active trades settling on the date, indexed by contractId
+   */
+  Map<String, Template> getTrades(LocalDate date) {
+    return Collections.unmodifiableMap(tradesPerDate.getOrDefault(date, Collections.emptyMap()));
+  }
+
+  ConcurrentHashMap<LocalDate, Long> getTradeCounts() {
+    ConcurrentHashMap<LocalDate, Long> result = new ConcurrentHashMap<>();
+    tradesPerDate.forEach((d, trades) -> result.put(d, (long) trades.size()));
+    return result;
+  }
+
+  int size() {
+    return trades.size();
+  }
+
+  /**
+   * Query the active trades. The trades are read from the smallest of the secondary index entries
+   * selected by the filter, and checked against the rest of the filter. When that entry selects
+   * exactly the filter's trades, its totals are returned, and otherwise the trades of the entry
+   * that match the filter are totalled.
+   *
+   * @param filter - selects the trades
+   * @param afterContractId - return trades after this contractId, or null to start from the first
+   * @param limit - the maximum number of trades to return
+   * @return a page of the selected trades, and the totals of all of them
+   */
+  TradePage query(TradeFilter filter, String afterContractId, int limit) {
+    List<Posting> postings = new ArrayList<>();
+    int filters = 0;
+    if (filter.participant != null) {
+      filters++;
+      postings.add(posting(byParticipant, byDateParticipant, filter, filter.participant));
+    }
+    if (filter.cusip != null) {
+      filters++;
+      postings.add(posting(byCusip, byDateCusip, filter, filter.cusip));
+    }
+    if (filter.currency != null) {
+      filters++;
+      postings.add(posting(byCurrency, byDateCurrency, filter, filter.currency));
+    }
+    if (filter.settlementDate != null && postings.isEmpty()) {
+      postings.add(byDate.getOrDefault(filter.settlementDate, new Posting()));
+    }
+
+    Posting smallest = postings.isEmpty() ? all : postings.get(0);
+    for (Posting posting : postings) {
+      if (posting.totals.getCount() < smallest.totals.getCount()) {
+        smallest = posting;
+      }
+    }
+    boolean exact = filters <= 1; // A single entry, of a date combined with any other filter
+
+    NavigableSet<String> candidates =
+        afterContractId == null
+            ? smallest.contractIds
+            : smallest.contractIds.tailSet(afterContractId, false);
+    List<Map.Entry<String, Trade>> page = new ArrayList<>();
+    String last = null;
+    for (String contractId : candidates) {
+      Trade trade = trades.get(contractId);
+      if (trade == null || !(exact || filter.matches(trade))) {
+        continue; // Archived since, or excluded by another filter
+      }
+      if (page.size() == limit) {
+        last = page.get(limit - 1).getKey();
+        break;
+      }
+      page.add(new AbstractMap.SimpleImmutableEntry<>(contractId, trade));
+    }
+
+    return new TradePage(page, last, exact ? smallest.totals : totals(smallest, filter));
+  }
+
+  /**
+   * @return the index entry of a value of the filter, combined with the filter's date if it has one
+   */
+  private static Posting posting(
+      Map<String, Posting> byValue,
+      Map<Map.Entry<LocalDate, String>, Posting> byDateAndValue,
+      TradeFilter filter,
+      String value) {
+    Posting posting =
+        filter.settlementDate == null
+            ? byValue.get(value)
+            : byDateAndValue.get(key(filter.settlementDate, value));
+    return posting == null ? new Posting() : posting;
+  }
+
+  /** @return the totals of the trades of a posting that match a filter */
+  private Totals totals(Posting posting, TradeFilter filter) {
+    Totals totals = new Totals();
+    for (String contractId : posting.contractIds) {
+      Trade trade = trades.get(contractId);
+      if (trade != null && filter.matches(trade)) {
+        totals.add(trade, 1);
+      }
+    }
+    return totals;
+  }
+}
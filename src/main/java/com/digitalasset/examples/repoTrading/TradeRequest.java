@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import com.digitalasset.examples.repoTrading.util.CsvFile;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/** A trade read from a trade file, to be requested by its lender. */
+class TradeRequest {
+
+  /** The column indexes of the trade file fields, resolved once from the header */
+  static class Columns {
+    final int lender;
+    final int borrower;
+    final int tradeId;
+    final int cusip;
+    final int settlementDate;
+    final int tradeDate;
+    final int collateralQuantity;
+    final int price;
+    final int repoRate;
+    final int term;
+    final int startAmount;
+    final int endAmount;
+    final int currency;
+
+    Columns(CsvFile file) {
+      lender = file.columnIndex("lender");
+      borrower = file.columnIndex("borrower");
+      tradeId = file.columnIndex("tradeId");
+      cusip = file.columnIndex("cusip");
+      settlementDate = file.columnIndex("settlementDate");
+      tradeDate = file.columnIndex("tradeDate");
+      collateralQuantity = file.columnIndex("collateralQuantity");
+      price = file.columnIndex("price");
+      repoRate = file.columnIndex("repoRate");
+      term = file.columnIndex("term");
+      startAmount = file.columnIndex("startAmount");
+      endAmount = file.columnIndex("endAmount");
+      currency = file.columnIndex("currency");
+    }
+  }
+
+  /** Marks the end of a stream of trade requests */
+  static final TradeRequest END =
+      new TradeRequest(null, 0, null, null, null, null, null, null, 0, null, null, null);
+
+  final String borrower;
+  final long tradeId;
+  final String cusip;
+  final LocalDate settlementDate;
+  final LocalDate tradeDate;
+  final BigDecimal collateralQuantity;
+  final BigDecimal price;
+  final BigDecimal repoRate;
+  final long term;
+  final BigDecimal startAmount;
+  final BigDecimal endAmount;
+  final String currency;
+
+  private TradeRequest(
+      String borrower,
+      long tradeId,
+      String cusip,
+      LocalDate settlementDate,
+      LocalDate tradeDate,
+      BigDecimal collateralQuantity,
+      BigDecimal price,
+      BigDecimal repoRate,
+      long term,
+      BigDecimal startAmount,
+      BigDecimal endAmount,
+      String currency) {
+    this.borrower = borrower;
+    this.tradeId = tradeId;
+    this.cusip = cusip;
+    this.settlementDate = settlementDate;
+    this.tradeDate = tradeDate;
+    this.collateralQuantity = collateralQuantity;
+    this.price = price;
+    this.repoRate = repoRate;
+    this.term = term;
+    this.startAmount = startAmount;
+    this.endAmount = endAmount;
+    this.currency = currency;
+  }
+
+  static TradeRequest of(CsvFile.Record record, Columns c) {
+    return new TradeRequest(
+        record.getString(c.borrower),
+        record.getLong(c.tradeId),
+        record.getString(c.cusip),
+        record.getLocalDate(c.settlementDate),
+        record.getLocalDate(c.tradeDate),
+        record.getDecimal(c.collateralQuantity),
+        record.getDecimal(c.price),
+        record.getDecimal(c.repoRate),
+        record.getLong(c.term),
+        record.getDecimal(c.startAmount),
+        record.getDecimal(c.endAmount),
+        record.getString(c.currency));
+  }
+}
@@ -5,23 +5,23 @@
 package com.digitalasset.examples.repoTrading;
 
 import com.daml.ledger.javaapi.data.*;
-import com.daml.ledger.rxjava.components.LedgerViewFlowable;
 import com.daml.ledger.rxjava.components.helpers.CommandsAndPendingSet;
 import com.digitalasset.examples.repoTrading.util.ControlServer;
-import com.digitalasset.examples.repoTrading.util.CsvFile;
+import com.digitalasset.examples.repoTrading.util.TokenBucket;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.AbstractMap;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.stream.Stream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import main.netobligation.NetObligationRequest;
 import main.trade.TradeRegistrationRequest;
 import main.tradingparticipant.InviteTradingParticipant;
@@ -37,82 +37,161 @@ public class TradingParticipantBot extends RepoMarketBot {
 
   private static final Logger log = LoggerFactory.getLogger(TradingParticipantBot.class);
 
+  /**
+   * Streams the trades of a file to the ledger. The file is read by the shared {@link TradeFeed},
+   * once for all the participants injecting it. Trades are paced either by a fixed delay between
+   * each, or at a target rate, and up to a limited number are submitted and awaiting completion at
+   * any time.
+   */
   private class TradeStreamer implements Runnable {
 
-    private final CsvFile reader;
-    private final long delay; // mS between registrations
-
-    TradeStreamer(File tradeFile, int delay) {
-      this.reader = new CsvFile(tradeFile);
-      this.delay = delay;
+    private final File tradeFile;
+    private final long delay; // mS between registrations, when no rate is set
+    private final TokenBucket rateLimit; // Paces registrations at tradesPerSecond, if set
+    private final int concurrency;
+    private final Semaphore inFlight;
+
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long submitted = 0;
+    private long startTime;
+    private long lastReportTime;
+
+    TradeStreamer(File tradeFile) {
+      this.tradeFile = tradeFile;
+      this.delay = injectDelay;
+      this.rateLimit =
+          tradesPerSecond > 0
+              ? new TokenBucket(tradesPerSecond, (int) Math.ceil(tradesPerSecond / 10))
+              : null;
+      this.concurrency = injectConcurrency;
+      this.inFlight = new Semaphore(injectConcurrency);
     }
 
     @Override
     public void run() {
-      commandStream().forEach(this::submit);
+      startTime = lastReportTime = System.nanoTime();
       try {
-        reader.close();
+        BlockingQueue<TradeRequest> trades =
+            getMainClass().getTradeFeed().claim(tradeFile, getParty());
+        TradeRequest trade;
+        while ((trade = trades.take()) != TradeRequest.END) {
+          pace();
+          try {
+            getMainClass().getSettlementTracer().injected(trade.tradeId);
+            submit(toTradeCommand(trade));
+          } catch (RuntimeException e) {
+            // Skip the trade, but keep draining the queue so the shared feed is not held up
+            failed.incrementAndGet();
+            log.error("{} failed injecting trade {}", getParty(), trade.tradeId, e);
+            logError(String.format("injection of trade %d failed: %s", trade.tradeId, e));
+          }
+        }
       } catch (IOException e) {
-        log.warn("Error closing trade reader: {}", e);
+        log.error("{} failed opening trade file {}", getParty(), tradeFile, e);
+        logError("failed opening trade file: " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+
+      // Wait for the remaining registrations to complete
+      inFlight.acquireUninterruptibly(concurrency);
+      reportProgress("trade injection complete");
     }
 
     private void submit(Map.Entry<String, Command> commandEntry) {
 
       log.debug("{} registers trade {}", getParty(), commandEntry.getKey());
-      submitCommands(
-          TRADE_INJECTION_WORKFLOW_ID, Collections.singletonList(commandEntry.getValue()));
+      inFlight.acquireUninterruptibly();
+      CompletableFuture<String> result;
+      try {
+        result =
+            submitCommands(
+                TRADE_INJECTION_WORKFLOW_ID, Collections.singletonList(commandEntry.getValue()));
+      } catch (RuntimeException e) {
+        inFlight.release();
+        throw e;
+      }
+      submitted++;
+      result.whenComplete(
+          (commandId, e) -> {
+            if (e == null) {
+              registered.incrementAndGet();
+            } else {
+              failed.incrementAndGet();
+              logError(
+                  String.format(
+                      "registration of trade %s failed: %s",
+                      commandEntry.getKey(), e.getMessage()));
+            }
+            inFlight.release();
+          });
+
+      if (System.nanoTime() - lastReportTime >= REPORT_INTERVAL_NANOS) {
+        reportProgress("injecting trades");
+      }
+    }
+
+    private void reportProgress(String status) {
+      long now = System.nanoTime();
+      double seconds = Math.max(1, now - startTime) / 1e9;
+      lastReportTime = now;
+      logMessage(
+          String.format(
+              "%s: %d submitted, %d registered, %d failed, %.1f trades/s",
+              status, submitted, registered.get(), failed.get(), registered.get() / seconds));
     }
 
-    Stream<Map.Entry<String, Command>> commandStream() {
+    private void pace() {
+      if (rateLimit == null) {
+        pause(delay);
+        return;
+      }
       try {
-        return reader
-            .open()
-            .recordStream()
-            .filter(r -> r.get("lender").equals(getParty()))
-            .peek(r -> pause(delay))
-            .map(this::toTradeCommand);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+        rateLimit.acquire();
+      } catch (InterruptedException e) {
+        // Ignore
       }
     }
 
-    private Map.Entry<String, Command> toTradeCommand(Map<String, String> record) {
+    private Map.Entry<String, Command> toTradeCommand(TradeRequest trade) {
 
-      logMessage(
-          String.format(
-              "requests trade with %s, tradeId '%s'",
-              record.get("borrower"), record.get("tradeId")));
+      if (rateLimit == null) {
+        logMessage(
+            String.format("requests trade with %s, tradeId '%d'", trade.borrower, trade.tradeId));
+      } else {
+        log.debug("requests trade with {}, tradeId '{}'", trade.borrower, trade.tradeId);
+      }
 
       TradingParticipant.ContractId contractId =
           new TradingParticipant.ContractId(tradingParticipantId);
       ExerciseCommand exerciseCommand =
           contractId.exerciseRequestTrade(
-              record.get("borrower"),
-              Long.parseLong(record.get("tradeId")),
-              record.get("cusip"),
-              toInstant(record.get("settlementDate")),
-              toInstant(record.get("tradeDate")),
-              new BigDecimal(record.get("collateralQuantity")),
-              new BigDecimal(record.get("price")),
-              new BigDecimal(record.get("repoRate")),
-              Long.parseLong(record.get("term")),
-              new BigDecimal(record.get("startAmount")),
-              new BigDecimal(record.get("endAmount")),
-              record.get("currency"));
-
-      return new AbstractMap.SimpleEntry<>(record.get("tradeId"), exerciseCommand);
+              trade.borrower,
+              trade.tradeId,
+              trade.cusip,
+              toInstant(trade.settlementDate),
+              toInstant(trade.tradeDate),
+              trade.collateralQuantity,
+              trade.price,
+              trade.repoRate,
+              trade.term,
+              trade.startAmount,
+              trade.endAmount,
+              trade.currency);
+
+      return new AbstractMap.SimpleEntry<>(Long.toString(trade.tradeId), exerciseCommand);
     }
 
-    Instant toInstant(String dateString) {
-      LocalDate d = LocalDate.parse(dateString);
-      log.trace("date string {} parses to {}", dateString, d);
-      return d.atStartOfDay(ZoneOffset.UTC).toInstant();
+    Instant toInstant(LocalDate date) {
+      return date.atStartOfDay(ZoneOffset.UTC).toInstant();
     }
   }
 
   // Constants
 
+  private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
   // Template ID's
 
   private final Identifier inviteTradingParticipantTemplateId;
@@ -128,6 +207,18 @@ public class TradingParticipantBot extends RepoMarketBot {
       usage = "Delay for INJECTION_DELAY mS between each trade request")
   private int injectDelay = 2000;
 
+  @Option(
+      name = "--tradesPerSecond",
+      metaVar = "RATE",
+      usage = "Inject trades at RATE per second, in place of the injection delay")
+  private double tradesPerSecond = 0;
+
+  @Option(
+      name = "--injectConcurrency",
+      metaVar = "TRADES",
+      usage = "Maximum number of trade requests awaiting completion during injection")
+  private int injectConcurrency = 32;
+
   @Argument(index = 0, metaVar = "PARTY", required = true, usage = "The trading party")
   private String participant = null;
 
@@ -143,6 +234,11 @@ public class TradingParticipantBot extends RepoMarketBot {
     this.tradeRegistrationRequestTemplateId = TradeRegistrationRequest.TEMPLATE_ID;
     this.inviteTradingParticipantTemplateId = InviteTradingParticipant.TEMPLATE_ID;
     this.tradingParticipantTemplateId = TradingParticipant.TEMPLATE_ID;
+
+    handleCreated(inviteTradingParticipantTemplateId, this::acceptTradingInvite);
+    handleCreated(tradingParticipantTemplateId, this::injectTrades);
+    handleCreated(tradeRegistrationRequestTemplateId, this::acceptTradeRequest);
+    handleCreated(netObligationRequestTemplateId, this::acceptNetObligation);
   }
 
   private ControlServer.ControlResult handleInjectTradeFile(HttpExchange exchange) {
@@ -169,7 +265,7 @@ public class TradingParticipantBot extends RepoMarketBot {
     }
 
     // Stream the trades
-    Thread tradeStreamer = new Thread(new TradeStreamer(tradeFile, injectDelay), "tradeStreamer");
+    Thread tradeStreamer = new Thread(new TradeStreamer(tradeFile), "tradeStreamer");
     tradeStreamer.start();
 
     return new ControlServer.ControlResult(200, "Injected\n");
@@ -181,31 +277,19 @@ public class TradingParticipantBot extends RepoMarketBot {
       return 1;
     }
     setParty(participant);
+    getMainClass().getTradeFeed().addParticipant(participant);
+    if (tradesPerSecond < 0 || injectConcurrency < 1) {
+      logError("--tradesPerSecond must be positive or 0, and --injectConcurrency at least 1");
+      return 1;
+    }
 
-    new ControlServer(getConfiguration().getTradingParties().get(getParty()).getPort())
+    newControlServer(getConfiguration().getTradingParties().get(getParty()).getPort())
         .addHandler("/injectTradeFile", this::handleInjectTradeFile)
         .start();
 
     return super.run(args);
   }
 
-  @Override
-  public Stream<CommandsAndPendingSet> process(LedgerViewFlowable.LedgerView<Template> ledgerView) {
-
-    log.trace("TradingParticpant process: {}, state: {}", getParty(), ledgerView);
-
-    return Stream.of(
-            ledgerView.getContracts(inviteTradingParticipantTemplateId).entrySet().stream()
-                .map(this::acceptTradingInvite),
-            ledgerView.getContracts(tradingParticipantTemplateId).entrySet().stream()
-                .map(this::injectTrades),
-            ledgerView.getContracts(tradeRegistrationRequestTemplateId).entrySet().stream()
-                .map(this::acceptTradeRequest),
-            ledgerView.getContracts(netObligationRequestTemplateId).entrySet().stream()
-                .map(this::acceptNetObligation))
-        .flatMap(s -> s);
-  }
-
   private CommandsAndPendingSet acceptTradingInvite(Map.Entry<String, Template> entry) {
 
     log.debug("{} accepts trading invitation", getParty());
@@ -232,8 +316,7 @@ public class TradingParticipantBot extends RepoMarketBot {
       tradingParticipantId = entry.getKey();
 
       if (tradeFile != null) {
-        Thread tradeStreamer =
-            new Thread(new TradeStreamer(tradeFile, injectDelay), "tradeStreamer");
+        Thread tradeStreamer = new Thread(new TradeStreamer(tradeFile), "tradeStreamer");
         tradeStreamer.start();
       }
     }
@@ -290,23 +373,6 @@ public class TradingParticipantBot extends RepoMarketBot {
         HashTreePMap.singleton(netObligationRequestTemplateId, HashTreePSet.singleton(contractId)));
   }
 
-  @Override
-  public TransactionFilter getTransactionFilter() {
-    InclusiveFilter inclusiveFilter =
-        new InclusiveFilter(
-            new HashSet<>(
-                Arrays.asList(
-                    inviteTradingParticipantTemplateId,
-                    tradingParticipantTemplateId,
-                    tradeRegistrationRequestTemplateId,
-                    cashRequestTemplateId,
-                    tradeTemplateId,
-                    netObligationRequestTemplateId,
-                    netObligationTemplateId)));
-    Map<String, Filter> filter = Collections.singletonMap(getParty(), inclusiveFilter);
-    return new FiltersByParty(filter);
-  }
-
   private void pause(long delay) {
     try {
       Thread.sleep(delay);
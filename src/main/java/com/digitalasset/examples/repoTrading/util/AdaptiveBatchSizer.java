@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+/**
+ * Sizes batches of work from the outcome of the batches already submitted, by additive increase
+ * and multiplicative decrease. The size starts at the minimum and doubles for each batch completed
+ * within the target latency, until the first batch fails or completes late. From then on, each
+ * batch within the target grows the size by one, and each batch that fails or completes late
+ * halves it, within fixed bounds. The size settles where batches complete just within the target.
+ */
+public class AdaptiveBatchSizer {
+
+  private final int minSize;
+  private final int maxSize;
+  private final long targetNanos;
+
+  private int size;
+  private boolean slowStart = true; // Doubling, as no batch has yet failed or completed late
+  private long completedCount = 0;
+  private long failedCount = 0;
+
+  /**
+   * @param minSize - the smallest batch, at least 1
+   * @param maxSize - the largest batch
+   * @param targetNanos - the latency a batch should complete within, in nanoseconds
+   */
+  public AdaptiveBatchSizer(int minSize, int maxSize, long targetNanos) {
+    if (minSize < 1 || maxSize < minSize || targetNanos <= 0) {
+      throw new IllegalArgumentException(
+          "sizes must be at least 1, maximum no less than minimum, and target latency positive");
+    }
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.targetNanos = targetNanos;
+    this.size = minSize;
+  }
+
+  /** @return the size of the next batch */
+  public synchronized int getSize() {
+    return size;
+  }
+
+  /**
+   * A batch has completed. It grows the size if it completed within the target, doubling it until
+   * the first late or failed batch, and halves it otherwise.
+   *
+   * @param latencyNanos - the time from submission to completion, in nanoseconds
+   */
+  public synchronized void completed(long latencyNanos) {
+    completedCount++;
+    if (latencyNanos <= targetNanos) {
+      size = (int) Math.min(maxSize, slowStart ? 2L * size : size + 1L);
+    } else {
+      decrease();
+    }
+  }
+
+  /** A batch has failed, which halves the size */
+  public synchronized void failed() {
+    failedCount++;
+    decrease();
+  }
+
+  /** @return the number of batches completed */
+  public synchronized long getCompletedCount() {
+    return completedCount;
+  }
+
+  /** @return the number of batches failed */
+  public synchronized long getFailedCount() {
+    return failedCount;
+  }
+
+  private void decrease() {
+    slowStart = false;
+    size = Math.max(minSize, size / 2);
+  }
+}
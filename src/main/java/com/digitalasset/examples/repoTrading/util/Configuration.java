@@ -37,6 +37,8 @@ public class Configuration {
   }
 
   private BotConfiguration ccp;
+  private BotConfiguration operator;
+  private BotConfiguration paymentProcessor;
   private Map<String, BotConfiguration> tradingParties;
 
   public Configuration(File yamlFile) throws FileNotFoundException {
@@ -47,6 +49,8 @@ public class Configuration {
     map = (Map) map.get("configuration");
 
     ccp = new BotConfiguration((Map) map.get("ccp"));
+    operator = optional((Map) map.get("operator"));
+    paymentProcessor = optional((Map) map.get("paymentProcessor"));
     tradingParties = new HashMap<>();
     for (Object t : ((List) map.get("tradingParties"))) {
       Map m = (Map) t;
@@ -55,10 +59,24 @@ public class Configuration {
     }
   }
 
+  private BotConfiguration optional(Map map) {
+    return map == null ? null : new BotConfiguration(map);
+  }
+
   public BotConfiguration getCcp() {
     return ccp;
   }
 
+  /** @return the operator's control server, or null if it has none */
+  public BotConfiguration getOperator() {
+    return operator;
+  }
+
+  /** @return the payment processor's control server, or null if it has none */
+  public BotConfiguration getPaymentProcessor() {
+    return paymentProcessor;
+  }
+
   public Map<String, BotConfiguration> getTradingParties() {
     return tradingParties;
   }
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs long control requests as jobs, so that the control server's thread is free for other
+ * requests. A route starts a job and returns its id at once, and the job's progress and outcome are
+ * then reported on the {@code /jobs/{id}} route.
+ *
+ * <p>The most recent finished jobs are kept for reporting; running jobs are always kept.
+ */
+public class ControlJobs {
+
+  private static final Logger log = LoggerFactory.getLogger(ControlJobs.class);
+
+  public static final String ROUTE = "/jobs";
+
+  private static final int MAX_FINISHED_JOBS = 100;
+
+  public enum State {
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+  }
+
+  /** The work of a job */
+  public interface Work {
+
+    /**
+     * @param job - the job, to report progress to
+     * @return a description of the outcome
+     * @throws Exception - to fail the job, with the exception's message as its outcome
+     */
+    String run(Job job) throws Exception;
+  }
+
+  public static class Job {
+    private final long id;
+    private final String description;
+    private final Instant started = Instant.now();
+    private final AtomicLong done = new AtomicLong();
+    private volatile long total = 0;
+    private volatile State state = State.RUNNING;
+    private volatile Instant finished = null;
+    private volatile String outcome = null;
+
+    Job(long id, String description) {
+      this.id = id;
+      this.description = description;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /** @param total - the number of steps in the job */
+    public void setTotal(long total) {
+      this.total = total;
+    }
+
+    /** Record that a step of the job is done */
+    public void stepDone() {
+      done.incrementAndGet();
+    }
+
+    /** @return the steps done, out of the total */
+    public String getProgress() {
+      return done.get() + "/" + total;
+    }
+
+    void finish(State state, String outcome) {
+      this.outcome = outcome;
+      this.finished = Instant.now();
+      this.state = state;
+    }
+
+    String summary() {
+      return String.format("%d %s %s %s%n", id, state, getProgress(), description);
+    }
+
+    String report() {
+      StringBuilder report = new StringBuilder();
+      report.append("id: ").append(id).append('\n');
+      report.append("description: ").append(description).append('\n');
+      report.append("state: ").append(state).append('\n');
+      report.append("progress: ").append(getProgress()).append('\n');
+      report.append("started: ").append(started).append('\n');
+      if (finished != null) {
+        report.append("finished: ").append(finished).append('\n');
+        report.append("outcome: ").append(outcome).append('\n');
+      }
+      return report.toString();
+    }
+  }
+
+  private final ExecutorService executor;
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final Map<Long, Job> jobs = new LinkedHashMap<>();
+
+  /** @param executor - runs the jobs */
+  public ControlJobs(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Create an executor for jobs.
+   *
+   * @param threads - the number of threads to run jobs on, or 0 to run each job on a thread of its
+   *     own: a virtual thread where the JVM supports them, or else a daemon platform thread
+   * @return the executor
+   */
+  public static ExecutorService newExecutor(int threads) {
+    if (threads > 0) {
+      return Executors.newFixedThreadPool(threads, daemonThreads());
+    }
+    try {
+      // Java 21 and later, looked up so as to run on earlier JVMs
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(daemonThreads());
+    }
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "control-job-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Start a job.
+   *
+   * @param description - what the job does, for reports
+   * @param work - the work of the job
+   * @return the job, running
+   */
+  public Job submit(String description, Work work) {
+    Job job = new Job(nextId.getAndIncrement(), description);
+    synchronized (jobs) {
+      jobs.put(job.getId(), job);
+      removeFinishedJobs();
+    }
+    executor.execute(
+        () -> {
+          try {
+            job.finish(State.SUCCEEDED, work.run(job));
+          } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            log.warn("Job {} failed: {}", job.getId(), description, cause);
+            job.finish(State.FAILED, String.valueOf(cause.getMessage()));
+          }
+        });
+    return job;
+  }
+
+  /** @return the job with an id, or null if there is no such job or it is no longer kept */
+  public Job getJob(long id) {
+    synchronized (jobs) {
+      return jobs.get(id);
+    }
+  }
+
+  private void removeFinishedJobs() {
+    int finished = 0;
+    for (Job job : jobs.values()) {
+      finished += job.getState() == State.RUNNING ? 0 : 1;
+    }
+    Iterator<Job> i = jobs.values().iterator();
+    while (finished > MAX_FINISHED_JOBS && i.hasNext()) {
+      if (i.next().getState() != State.RUNNING) {
+        i.remove();
+        finished--;
+      }
+    }
+  }
+
+  /**
+   * A started job, as returned by the route that started it
+   *
+   * @param job - the job
+   * @return status 202, with the route reporting the job
+   */
+  public static ControlServer.ControlResult accepted(Job job) {
+    return new ControlServer.ControlResult(
+        202, String.format("Started job %d: %s/%d%n", job.getId(), ROUTE, job.getId()));
+  }
+
+  /**
+   * Control route reporting jobs: {@code /jobs} lists the jobs, and {@code /jobs/{id}} reports a
+   * job in full
+   *
+   * @param exchange - the request
+   * @return the job report
+   */
+  public ControlServer.ControlResult handleJobs(HttpExchange exchange) {
+    String path = exchange.getRequestURI().getPath();
+    String idString = path.substring(ROUTE.length()).replaceFirst("^/", "");
+
+    if (idString.isEmpty()) {
+      List<Job> all;
+      synchronized (jobs) {
+        all = new ArrayList<>(jobs.values());
+      }
+      StringBuilder list = new StringBuilder();
+      all.forEach(job -> list.append(job.summary()));
+      return new ControlServer.ControlResult(200, list.toString());
+    }
+
+    try {
+      Job job = getJob(Long.parseLong(idString));
+      if (job == null) {
+        return new ControlServer.ControlResult(404, "No job " + idString + "\n");
+      }
+      return new ControlServer.ControlResult(200, job.report());
+    } catch (NumberFormatException e) {
+      return new ControlServer.ControlResult(400, "Bad job id: " + idString + "\n");
+    }
+  }
+}
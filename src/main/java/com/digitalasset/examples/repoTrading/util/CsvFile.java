@@ -7,19 +7,162 @@ package com.digitalasset.examples.repoTrading.util;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-/** A CSV file reader than can provide a stream of records, one per line. */
+/**
+ * A CSV file reader than can provide a stream of records, one per line.
+ *
+ * <p>The first line holds the column headers. Fields may be quoted, in which case they can contain
+ * commas, line breaks and doubled quotes. Records are read one at a time into a single reusable
+ * {@link Record}, whose fields are accessed by column index, resolved once with {@link
+ * #columnIndex(String)}.
+ */
 public class CsvFile {
 
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * The current record of a CSV file. The same instance is refilled by each call to {@link
+   * CsvFile#next()}, so values must be copied out to be kept.
+   */
+  public static class Record {
+
+    private final StringBuilder text = new StringBuilder(256); // Unquoted field contents
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size = 0;
+
+    /** @return the number of fields in the record */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param column - the column index
+     * @return the field value, or an empty string if the record has no such column
+     */
+    public String getString(int column) {
+      return column < size ? text.substring(starts[column], ends[column]) : "";
+    }
+
+    /** @return true if the field equals the value, compared without copying the field */
+    public boolean fieldEquals(int column, String value) {
+      if (column >= size) {
+        return value.isEmpty();
+      }
+      int length = ends[column] - starts[column];
+      if (length != value.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (text.charAt(starts[column] + i) != value.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public long getLong(int column) {
+      int i = starts(column);
+      int end = ends[column];
+      boolean negative = i < end && text.charAt(i) == '-';
+      if (negative || (i < end && text.charAt(i) == '+')) {
+        i++;
+      }
+      if (i == end || end - i > 18) {
+        return Long.parseLong(getString(column)); // Reports empty or overflowing values
+      }
+      long value = 0;
+      for (; i < end; i++) {
+        int digit = text.charAt(i) - '0';
+        if (digit < 0 || digit > 9) {
+          return Long.parseLong(getString(column)); // Reports the format error
+        }
+        value = value * 10 + digit;
+      }
+      return negative ? -value : value;
+    }
+
+    public BigDecimal getDecimal(int column) {
+      return new BigDecimal(getString(column));
+    }
+
+    /**
+     * @param column - the column index
+     * @return the field as an ISO date, yyyy-mm-dd
+     */
+    public LocalDate getLocalDate(int column) {
+      int i = starts(column);
+      if (ends[column] - i == 10 && text.charAt(i + 4) == '-' && text.charAt(i + 7) == '-') {
+        int year = digits(i, 4);
+        int month = digits(i + 5, 2);
+        int day = digits(i + 8, 2);
+        if (year >= 0 && month >= 0 && day >= 0) {
+          return LocalDate.of(year, month, day);
+        }
+      }
+      return LocalDate.parse(getString(column)); // Reports the format error
+    }
+
+    private int starts(int column) {
+      if (column >= size) {
+        throw new IndexOutOfBoundsException("No column " + column + " in record");
+      }
+      return starts[column];
+    }
+
+    private int digits(int start, int count) {
+      int value = 0;
+      for (int i = start; i < start + count; i++) {
+        int digit = text.charAt(i) - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        value = value * 10 + digit;
+      }
+      return value;
+    }
+
+    private void clear() {
+      text.setLength(0);
+      size = 0;
+    }
+
+    private void startField() {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      starts[size] = text.length();
+    }
+
+    private void endField() {
+      ends[size++] = text.length();
+    }
+  }
+
   private final File file;
   private BufferedReader reader;
   private String[] headers = null;
+  private Map<String, Integer> columns = Collections.emptyMap();
+  private final Record record = new Record();
 
   public CsvFile(File file) {
     this.file = file;
@@ -29,9 +172,16 @@ public class CsvFile {
     return file;
   }
 
-  public CsvFile open() throws FileNotFoundException {
-    reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-    headers = null;
+  /** Open the file and read the header line. */
+  public CsvFile open() throws IOException {
+    reader =
+        new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+    headers = readRecord(record) ? toArray(record) : new String[0];
+    columns = new HashMap<>();
+    for (int i = 0; i < headers.length; i++) {
+      columns.put(headers[i], i);
+    }
     return this;
   }
 
@@ -39,20 +189,137 @@ public class CsvFile {
     reader.close();
   }
 
+  /** @return the column headers, from the first line of the file */
+  public List<String> getHeaders() {
+    return Collections.unmodifiableList(Arrays.asList(headers));
+  }
+
+  /**
+   * @param header - a column header
+   * @return the index of the column
+   * @throws IllegalArgumentException if the file has no such column
+   */
+  public int columnIndex(String header) {
+    Integer index = columns.get(header);
+    if (index == null) {
+      throw new IllegalArgumentException("No column '" + header + "' in " + file);
+    }
+    return index;
+  }
+
+  /**
+   * Read the next record into {@link #getRecord()}.
+   *
+   * @return false at the end of the file
+   */
+  public boolean next() throws IOException {
+    return readRecord(record);
+  }
+
+  /** @return the current record, refilled by each call to {@link #next()} */
+  public Record getRecord() {
+    return record;
+  }
+
+  /**
+   * @return a stream of the remaining records, each copied into a map from header to field value
+   */
   public Stream<Map<String, String>> recordStream() {
-    return reader.lines().map(this::toRecord).skip(1);
+    Iterator<Map<String, String>> records =
+        new Iterator<Map<String, String>>() {
+          private Boolean hasNext = null;
+
+          @Override
+          public boolean hasNext() {
+            if (hasNext == null) {
+              try {
+                hasNext = CsvFile.this.next();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            }
+            return hasNext;
+          }
+
+          @Override
+          public Map<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            hasNext = null;
+            return toMap(record);
+          }
+        };
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(records, Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
   }
 
-  private Map<String, String> toRecord(String line) {
-    String[] splitLIne = line.split(",");
-    Map<String, String> record = new HashMap<>();
-    if (headers == null) {
-      headers = splitLIne;
-    } else {
-      for (int i = 0; i < headers.length; i++) {
-        record.put(headers[i], splitLIne[i]);
+  private Map<String, String> toMap(Record record) {
+    Map<String, String> map = new HashMap<>();
+    for (int i = 0; i < headers.length; i++) {
+      map.put(headers[i], record.getString(i));
+    }
+    return map;
+  }
+
+  private static String[] toArray(Record record) {
+    List<String> fields = new ArrayList<>(record.size());
+    for (int i = 0; i < record.size(); i++) {
+      fields.add(record.getString(i));
+    }
+    return fields.toArray(new String[0]);
+  }
+
+  /** Parse the next non-blank line, and any continuation lines of quoted fields, into a record. */
+  private boolean readRecord(Record record) throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+      if (line == null) {
+        return false;
+      }
+    } while (line.isEmpty());
+
+    record.clear();
+    record.startField();
+    boolean quoted = false;
+    int i = 0;
+    while (true) {
+      if (i == line.length()) {
+        if (!quoted) {
+          break;
+        }
+        // A line break within a quoted field
+        line = reader.readLine();
+        if (line == null) {
+          throw new IOException("Unterminated quoted field in " + file);
+        }
+        record.text.append('\n');
+        i = 0;
+        continue;
+      }
+
+      char c = line.charAt(i++);
+      if (quoted) {
+        if (c != '"') {
+          record.text.append(c);
+        } else if (i < line.length() && line.charAt(i) == '"') {
+          record.text.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == ',') {
+        record.endField();
+        record.startField();
+      } else if (c == '"' && record.text.length() == record.starts[record.size]) {
+        quoted = true;
+      } else {
+        record.text.append(c);
       }
     }
-    return record;
+    record.endField();
+    return true;
   }
 }
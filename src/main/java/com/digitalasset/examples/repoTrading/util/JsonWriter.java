@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+import java.math.BigDecimal;
+
+/**
+ * Writes JSON text, for control routes. Objects and arrays are opened and closed explicitly, and
+ * separators between their members are written as needed.
+ */
+public class JsonWriter {
+
+  private final StringBuilder text = new StringBuilder();
+  private boolean first = true; // No member yet in the current object or array
+
+  public JsonWriter beginObject() {
+    separate();
+    text.append('{');
+    first = true;
+    return this;
+  }
+
+  public JsonWriter endObject() {
+    text.append('}');
+    first = false;
+    return this;
+  }
+
+  public JsonWriter beginArray() {
+    separate();
+    text.append('[');
+    first = true;
+    return this;
+  }
+
+  public JsonWriter endArray() {
+    text.append(']');
+    first = false;
+    return this;
+  }
+
+  /** Write the name of an object member, to be followed by its value */
+  public JsonWriter name(String name) {
+    separate();
+    quote(name);
+    text.append(':');
+    first = true; // The value follows without a separator
+    return this;
+  }
+
+  /** @param value - a string, or null */
+  public JsonWriter value(String value) {
+    separate();
+    if (value == null) {
+      text.append("null");
+    } else {
+      quote(value);
+    }
+    return this;
+  }
+
+  public JsonWriter value(long value) {
+    separate();
+    text.append(value);
+    return this;
+  }
+
+  /** @param value - written as a JSON number, without an exponent */
+  public JsonWriter value(BigDecimal value) {
+    separate();
+    text.append(value.toPlainString());
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return text.toString();
+  }
+
+  private void separate() {
+    if (!first) {
+      text.append(',');
+    }
+    first = false;
+  }
+
+  private void quote(String s) {
+    text.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          text.append("\\\"");
+          break;
+        case '\\':
+          text.append("\\\\");
+          break;
+        case '\n':
+          text.append("\\n");
+          break;
+        case '\r':
+          text.append("\\r");
+          break;
+        case '\t':
+          text.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            text.append(String.format("\\u%04x", (int) c));
+          } else {
+            text.append(c);
+          }
+      }
+    }
+    text.append('"');
+  }
+}
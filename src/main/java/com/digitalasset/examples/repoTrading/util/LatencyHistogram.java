@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+/**
+ * A histogram of latencies in nanoseconds, with a fixed number of buckets. Values below 16 have a
+ * bucket each, and each power of two above that is split into 8 linear buckets, so a percentile is
+ * reported to within 1/8 of its value, in a few kilobytes regardless of the number of samples.
+ */
+public class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MIN_EXPONENT = 4; // log2 of LINEAR_BUCKETS
+
+  private final long[] counts = new long[LINEAR_BUCKETS + (63 - MIN_EXPONENT) * SUB_BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  /** @param nanos - a latency; negative values are recorded as zero */
+  public synchronized void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[bucket(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /** @return the sum of the recorded latencies, in nanoseconds */
+  public synchronized long getSum() {
+    return sum;
+  }
+
+  /** @return the largest recorded latency, in nanoseconds */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile - the percentile, from 0 to 100
+   * @return the latency in nanoseconds at or below which the percentile of samples fall, rounded up
+   *     to the end of its bucket and capped at the largest sample, or 0 if there are no samples
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int bucket(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + MIN_EXPONENT;
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    long end = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    return end < 0 ? Long.MAX_VALUE : end - 1;
+  }
+}
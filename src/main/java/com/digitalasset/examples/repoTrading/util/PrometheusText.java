@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Each metric is written with its help and
+ * type lines, followed by one sample per label set.
+ */
+public class PrometheusText {
+
+  /** The content type of the format, for the HTTP response */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * @param nameValues - label names and values, alternately
+   * @return the labels, formatted for a sample
+   */
+  public static String labels(String... nameValues) {
+    StringBuilder labels = new StringBuilder("{");
+    for (int i = 0; i + 1 < nameValues.length; i += 2) {
+      if (i > 0) {
+        labels.append(',');
+      }
+      labels.append(nameValues[i]).append("=\"").append(escape(nameValues[i + 1])).append('"');
+    }
+    return labels.append('}').toString();
+  }
+
+  public PrometheusText counter(String name, String help, String labels, double value) {
+    header(name, help, "counter");
+    return sample(name, labels, value);
+  }
+
+  public PrometheusText gauge(String name, String help, String labels, double value) {
+    header(name, help, "gauge");
+    return sample(name, labels, value);
+  }
+
+  /**
+   * A gauge with a sample per value of a label.
+   *
+   * @param labels - the labels common to all the samples, from {@link #labels(String...)}
+   * @param label - the label distinguishing the samples
+   * @param values - the value of each sample, by label value
+   */
+  public PrometheusText gauge(
+      String name, String help, String labels, String label, Map<String, ? extends Number> values) {
+    header(name, help, "gauge");
+    return samples(name, labels, label, values);
+  }
+
+  /**
+   * A counter with a sample per value of a label.
+   *
+   * @param labels - the labels common to all the samples, from {@link #labels(String...)}
+   * @param label - the label distinguishing the samples
+   * @param values - the value of each sample, by label value
+   */
+  public PrometheusText counter(
+      String name, String help, String labels, String label, Map<String, ? extends Number> values) {
+    header(name, help, "counter");
+    return samples(name, labels, label, values);
+  }
+
+  /**
+   * A summary of latencies, reported in seconds.
+   *
+   * @param labels - the labels of the summary, from {@link #labels(String...)}
+   * @param latency - the latencies, in nanoseconds
+   */
+  public PrometheusText summary(String name, String help, String labels, LatencyHistogram latency) {
+    header(name, help, "summary");
+    for (double quantile : QUANTILES) {
+      sample(
+          name,
+          withLabel(labels, "quantile", Double.toString(quantile)),
+          latency.getPercentile(quantile * 100) / NANOS_PER_SECOND);
+    }
+    sample(name + "_sum", labels, latency.getSum() / NANOS_PER_SECOND);
+    return sample(name + "_count", labels, latency.getCount());
+  }
+
+  /** Add the heap, non-heap and garbage collection metrics of this JVM. */
+  public PrometheusText jvm() {
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+
+    header("jvm_memory_bytes_used", "Used bytes of a given JVM memory area.", "gauge");
+    sample("jvm_memory_bytes_used", labels("area", "heap"), heap.getUsed());
+    sample("jvm_memory_bytes_used", labels("area", "nonheap"), nonHeap.getUsed());
+    header("jvm_memory_bytes_committed", "Committed bytes of a given JVM memory area.", "gauge");
+    sample("jvm_memory_bytes_committed", labels("area", "heap"), heap.getCommitted());
+    sample("jvm_memory_bytes_committed", labels("area", "nonheap"), nonHeap.getCommitted());
+    header("jvm_memory_bytes_max", "Max bytes of a given JVM memory area.", "gauge");
+    sample("jvm_memory_bytes_max", labels("area", "heap"), heap.getMax());
+    sample("jvm_memory_bytes_max", labels("area", "nonheap"), nonHeap.getMax());
+
+    header("jvm_gc_collection_seconds", "Time spent in a given JVM garbage collector.", "summary");
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      String gcLabels = labels("gc", gc.getName());
+      sample("jvm_gc_collection_seconds_count", gcLabels, gc.getCollectionCount());
+      sample("jvm_gc_collection_seconds_sum", gcLabels, gc.getCollectionTime() / 1000.0);
+    }
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return text.toString();
+  }
+
+  private void header(String name, String help, String type) {
+    text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private PrometheusText sample(String name, String labels, double value) {
+    text.append(name);
+    if (!labels.equals("{}")) {
+      text.append(labels);
+    }
+    text.append(' ');
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      text.append((long) value);
+    } else {
+      text.append(value);
+    }
+    text.append('\n');
+    return this;
+  }
+
+  private PrometheusText samples(
+      String name, String labels, String label, Map<String, ? extends Number> values) {
+    for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+      sample(name, withLabel(labels, label, entry.getKey()), entry.getValue().doubleValue());
+    }
+    return this;
+  }
+
+  private static String withLabel(String labels, String name, String value) {
+    String label = name + "=\"" + escape(value) + "\"";
+    return labels.equals("{}")
+        ? "{" + label + "}"
+        : labels.substring(0, labels.length() - 1) + "," + label + "}";
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
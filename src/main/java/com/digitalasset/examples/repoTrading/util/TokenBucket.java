@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter. Tokens are added at a fixed rate up to the bucket capacity, and each
+ * permit taken uses one token. The capacity bounds the burst allowed after an idle period.
+ */
+public class TokenBucket {
+
+  private final double tokensPerNano;
+  private final double capacity;
+  private final LongSupplier nanoClock;
+
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * @param ratePerSecond - the sustained rate of permits
+   * @param capacity - the maximum number of permits that can be taken at once
+   */
+  public TokenBucket(double ratePerSecond, int capacity) {
+    this(ratePerSecond, capacity, System::nanoTime);
+  }
+
+  /**
+   * @param ratePerSecond - the sustained rate of permits
+   * @param capacity - the maximum number of permits that can be taken at once
+   * @param nanoClock - the time source, in nanoseconds
+   */
+  public TokenBucket(double ratePerSecond, int capacity, LongSupplier nanoClock) {
+    if (ratePerSecond <= 0 || capacity < 1) {
+      throw new IllegalArgumentException("rate must be positive and capacity at least 1");
+    }
+    this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.capacity = capacity;
+    this.nanoClock = nanoClock;
+    this.tokens = capacity;
+    this.lastRefill = nanoClock.getAsLong();
+  }
+
+  /** Take a permit, waiting until one is available. */
+  public void acquire() throws InterruptedException {
+    long wait;
+    while ((wait = reserve()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /** @return true if a permit was taken, false if none is available now */
+  public boolean tryAcquire() {
+    return reserve() == 0;
+  }
+
+  /** Take a permit if one is available, otherwise return the nanoseconds until there will be. */
+  private synchronized long reserve() {
+    long now = nanoClock.getAsLong();
+    tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+    lastRefill = now;
+
+    if (tokens >= 1) {
+      tokens -= 1;
+      return 0;
+    }
+    return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+  }
+}
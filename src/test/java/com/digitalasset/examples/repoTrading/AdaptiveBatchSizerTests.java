@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.AdaptiveBatchSizer;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("An AdaptiveBatchSizer")
+public class AdaptiveBatchSizerTests {
+
+  static final long TARGET = TimeUnit.MILLISECONDS.toNanos(500);
+
+  AdaptiveBatchSizer sizer;
+
+  @BeforeEach
+  void setupSizer() {
+    sizer = new AdaptiveBatchSizer(2, 10, TARGET);
+  }
+
+  @Test
+  void startsAtTheMinimum() {
+    assertEquals(2, sizer.getSize());
+  }
+
+  @Test
+  void doublesForEachBatchWithinTheTargetUntilTheFirstLateBatch() {
+    sizer.completed(TARGET);
+    sizer.completed(TARGET / 2);
+    assertEquals(8, sizer.getSize());
+    sizer.completed(TARGET + 1);
+    assertEquals(4, sizer.getSize());
+  }
+
+  @Test
+  void growsByOneForEachBatchWithinTheTargetAfterAFailure() {
+    sizer.completed(0);
+    sizer.failed();
+    sizer.completed(TARGET);
+    sizer.completed(TARGET / 2);
+    assertEquals(4, sizer.getSize());
+  }
+
+  @Test
+  void neverGrowsBeyondTheMaximum() {
+    for (int i = 0; i < 20; i++) {
+      sizer.completed(0);
+    }
+    assertEquals(10, sizer.getSize());
+  }
+
+  @Test
+  void halvesOnAFailureOrALateBatch() {
+    for (int i = 0; i < 8; i++) {
+      sizer.completed(0);
+    }
+    sizer.failed();
+    assertEquals(5, sizer.getSize());
+    sizer.completed(TARGET + 1);
+    assertEquals(2, sizer.getSize());
+    sizer.failed();
+    assertEquals(2, sizer.getSize());
+
+    assertEquals(9, sizer.getCompletedCount());
+    assertEquals(2, sizer.getFailedCount());
+  }
+
+  @Test
+  void rejectsInvalidBounds() {
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchSizer(0, 10, TARGET));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchSizer(5, 4, TARGET));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchSizer(1, 4, 0));
+  }
+}
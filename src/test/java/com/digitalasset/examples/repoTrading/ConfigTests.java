@@ -27,6 +27,8 @@ class ConfigTests {
 
     assertEquals("CCP", c.getCcp().getName());
     assertEquals(9000, c.getCcp().getPort());
+    assertEquals(9005, c.getOperator().getPort());
+    assertEquals(9006, c.getPaymentProcessor().getPort());
 
     assertEquals(4, c.getTradingParties().size());
 
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.ControlJobs;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A ControlJobs")
+public class ControlJobsTests {
+
+  private static void awaitFinished(ControlJobs.Job job) throws InterruptedException {
+    for (int i = 0; i < 500 && job.getState() == ControlJobs.State.RUNNING; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  void returnsARunningJobAndReportsItsProgress() throws InterruptedException {
+    ExecutorService executor = ControlJobs.newExecutor(0);
+    ControlJobs jobs = new ControlJobs(executor);
+    CountDownLatch release = new CountDownLatch(1);
+
+    ControlJobs.Job job =
+        jobs.submit(
+            "test",
+            j -> {
+              j.setTotal(3);
+              j.stepDone();
+              release.await();
+              j.stepDone();
+              j.stepDone();
+              return "done";
+            });
+
+    assertSame(job, jobs.getJob(job.getId()));
+    assertEquals(ControlJobs.State.RUNNING, job.getState());
+    release.countDown();
+    awaitFinished(job);
+    assertEquals(ControlJobs.State.SUCCEEDED, job.getState());
+    assertEquals("3/3", job.getProgress());
+    executor.shutdown();
+  }
+
+  @Test
+  void failsAJobThatThrows() throws InterruptedException {
+    ExecutorService executor = ControlJobs.newExecutor(1);
+    ControlJobs jobs = new ControlJobs(executor);
+
+    ControlJobs.Job job =
+        jobs.submit(
+            "test",
+            j -> {
+              throw new IllegalStateException("broken");
+            });
+
+    awaitFinished(job);
+    assertEquals(ControlJobs.State.FAILED, job.getState());
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void givesEachJobItsOwnId() {
+    ExecutorService executor = ControlJobs.newExecutor(1);
+    ControlJobs jobs = new ControlJobs(executor);
+
+    ControlJobs.Job first = jobs.submit("first", j -> "done");
+    ControlJobs.Job second = jobs.submit("second", j -> "done");
+
+    assertNotEquals(first.getId(), second.getId());
+    assertSame(second, jobs.getJob(second.getId()));
+    assertNull(jobs.getJob(second.getId() + 1));
+    executor.shutdown();
+  }
+}
@@ -11,6 +11,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -64,4 +66,57 @@ public class CsvFileTests {
       throw new RuntimeException(e);
     }
   }
+
+  @Test
+  void resolvesColumnIndexes() throws IOException {
+    CsvFile csvf = new CsvFile(testFile).open();
+    assertEquals(2, csvf.columnIndex("field3"));
+    assertThrows(IllegalArgumentException.class, () -> csvf.columnIndex("field4"));
+    csvf.close();
+  }
+
+  @Test
+  void reusesTheRecord() throws IOException {
+    writeFile("field1\nval1\nval2\n");
+    CsvFile csvf = new CsvFile(testFile).open();
+    CsvFile.Record record = csvf.getRecord();
+    assertTrue(csvf.next());
+    assertEquals("val1", record.getString(0));
+    assertTrue(csvf.next());
+    assertSame(record, csvf.getRecord());
+    assertEquals("val2", record.getString(0));
+    assertFalse(csvf.next());
+    csvf.close();
+  }
+
+  @Test
+  void parsesQuotedFields() throws IOException {
+    writeFile("name,note\n\"Smith, J\",\"say \"\"hi\"\"\nthere\"\n");
+    CsvFile csvf = new CsvFile(testFile).open();
+    assertTrue(csvf.next());
+    assertEquals("Smith, J", csvf.getRecord().getString(0));
+    assertEquals("say \"hi\"\nthere", csvf.getRecord().getString(1));
+    assertFalse(csvf.next());
+    csvf.close();
+  }
+
+  @Test
+  void convertsTypedFields() throws IOException {
+    writeFile("id,amount,date,lender\n-42,1045000.50,2018-06-28,Citi\n");
+    CsvFile csvf = new CsvFile(testFile).open();
+    assertTrue(csvf.next());
+    CsvFile.Record record = csvf.getRecord();
+    assertEquals(-42L, record.getLong(0));
+    assertEquals(new BigDecimal("1045000.50"), record.getDecimal(1));
+    assertEquals(LocalDate.of(2018, 6, 28), record.getLocalDate(2));
+    assertTrue(record.fieldEquals(3, "Citi"));
+    assertFalse(record.fieldEquals(3, "HSBC"));
+    csvf.close();
+  }
+
+  private void writeFile(String content) throws IOException {
+    BufferedWriter out = new BufferedWriter(new FileWriter(testFile.getPath()));
+    out.write(content);
+    out.close();
+  }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A CusipPartition")
+public class CusipPartitionTests {
+
+  private static final List<String> CUSIPS =
+      Arrays.asList("912796RX9", "912828YS3", "912828Z29", "9128283F5", "912810SF6", "912810RZ3");
+
+  @Test
+  void assignsEachCusipToExactlyOnePartition() {
+    int count = 4;
+    for (String cusip : CUSIPS) {
+      int owners = 0;
+      for (int index = 0; index < count; index++) {
+        if (new CusipPartition(index, count).owns(cusip)) {
+          owners++;
+        }
+      }
+      assertEquals(1, owners, cusip);
+    }
+  }
+
+  @Test
+  void ownsEveryCusipWhenUnpartitioned() {
+    CUSIPS.forEach(cusip -> assertTrue(CusipPartition.ALL.owns(cusip)));
+    assertFalse(CusipPartition.ALL.isPartitioned());
+    assertTrue(CusipPartition.ALL.isCoordinator());
+  }
+
+  @Test
+  void rejectsAnIndexOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> new CusipPartition(2, 2));
+    assertThrows(IllegalArgumentException.class, () -> new CusipPartition(-1, 2));
+    assertThrows(IllegalArgumentException.class, () -> new CusipPartition(0, 0));
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.JsonWriter;
+import java.math.BigDecimal;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A JsonWriter")
+public class JsonWriterTests {
+
+  @Test
+  void separatesMembersAndElements() {
+    String json =
+        new JsonWriter()
+            .beginObject()
+            .name("count")
+            .value(2)
+            .name("trades")
+            .beginArray()
+            .beginObject()
+            .name("id")
+            .value(1)
+            .endObject()
+            .beginObject()
+            .name("id")
+            .value(2)
+            .endObject()
+            .endArray()
+            .name("next")
+            .value((String) null)
+            .endObject()
+            .toString();
+
+    assertEquals("{\"count\":2,\"trades\":[{\"id\":1},{\"id\":2}],\"next\":null}", json);
+  }
+
+  @Test
+  void writesDecimalsWithoutExponents() {
+    assertEquals(
+        "[1000000,0.5]",
+        new JsonWriter()
+            .beginArray()
+            .value(new BigDecimal("1E+6"))
+            .value(new BigDecimal("0.5"))
+            .endArray()
+            .toString());
+  }
+
+  @Test
+  void escapesStrings() {
+    assertEquals(
+        "\"a\\\"b\\\\c\\nd\\u0001\"", new JsonWriter().value("a\"b\\c\nd\u0001").toString());
+  }
+}
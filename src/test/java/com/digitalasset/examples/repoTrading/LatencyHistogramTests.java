@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.LatencyHistogram;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A LatencyHistogram")
+public class LatencyHistogramTests {
+
+  @Test
+  void reportsNothingWhenEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  void countsSumsAndKeepsTheMaximum() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.record(1_000);
+    histogram.record(-5);
+
+    assertEquals(3, histogram.getCount());
+    assertEquals(1_010, histogram.getSum());
+    assertEquals(1_000, histogram.getMax());
+  }
+
+  @Test
+  void reportsSmallValuesExactly() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(9, histogram.getPercentile(90));
+    assertEquals(10, histogram.getPercentile(100));
+  }
+
+  @Test
+  void reportsPercentilesWithinAnEighth() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 100_000; i++) {
+      histogram.record(i * 1_000);
+    }
+
+    for (double p : new double[] {1, 50, 90, 99, 99.9}) {
+      long expected = (long) (p * 1_000) * 1_000;
+      long actual = histogram.getPercentile(p);
+      assertTrue(actual >= expected, p + "th percentile " + actual + " below " + expected);
+      assertTrue(actual <= expected * 9 / 8, p + "th percentile " + actual + " above " + expected);
+    }
+    assertEquals(100_000_000, histogram.getPercentile(100));
+  }
+
+  @Test
+  void acceptsTheLargestValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(Long.MAX_VALUE, histogram.getPercentile(99));
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.daml.ledger.javaapi.data.ArchivedEvent;
+import com.daml.ledger.javaapi.data.CreatedEvent;
+import com.daml.ledger.javaapi.data.Identifier;
+import com.digitalasset.ledger.api.v1.EventOuterClass;
+import com.digitalasset.ledger.api.v1.ValueOuterClass;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import main.trade.Trade;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A LedgerSnapshot")
+public class LedgerSnapshotTests {
+
+  private static final String LEDGER_ID = "ledger";
+  private static final Identifier TEMPLATE_ID = new Identifier("pkg", "Main", "Trade");
+
+  File file;
+  LedgerSnapshot snapshot;
+  String filterKey;
+
+  @BeforeEach
+  void setupSnapshot() throws IOException {
+    file = File.createTempFile("tmp", "snapshotTest");
+    Files.delete(file.toPath());
+    file.deleteOnExit();
+    snapshot = new LedgerSnapshot(file.toPath());
+    filterKey = filterKey("CCP", TEMPLATE_ID);
+  }
+
+  private static String filterKey(String party, Identifier... templateIds) {
+    Map<String, Set<Identifier>> templatesByParty = new HashMap<>();
+    templatesByParty.put(party, new HashSet<>(Arrays.asList(templateIds)));
+    return LedgerSnapshot.filterKey(templatesByParty);
+  }
+
+  private static CreatedEvent created(String contractId) {
+    return CreatedEvent.fromProto(
+        EventOuterClass.CreatedEvent.newBuilder()
+            .setEventId(contractId)
+            .setContractId(contractId)
+            .setTemplateId(
+                ValueOuterClass.Identifier.newBuilder()
+                    .setPackageId(TEMPLATE_ID.getPackageId())
+                    .setModuleName(TEMPLATE_ID.getModuleName())
+                    .setEntityName(TEMPLATE_ID.getEntityName()))
+            .setCreateArguments(ValueOuterClass.Record.newBuilder())
+            .addWitnessParties("CCP")
+            .build());
+  }
+
+  private static ArchivedEvent archived(String contractId) {
+    return new ArchivedEvent(
+        Collections.singletonList("CCP"), contractId + "-archived", TEMPLATE_ID, contractId);
+  }
+
+  @Test
+  void readsWhatWasWritten() throws IOException {
+    snapshot.write(LEDGER_ID, filterKey, "42", Arrays.asList(created("#1:0"), created("#2:0")));
+
+    LedgerSnapshot.State state = snapshot.read(LEDGER_ID, filterKey);
+    assertNotNull(state);
+    assertEquals("42", state.offset);
+    assertEquals(
+        Arrays.asList("#1:0", "#2:0"),
+        state.contracts.stream().map(CreatedEvent::getContractId).collect(Collectors.toList()));
+    assertEquals(TEMPLATE_ID, state.contracts.get(0).getTemplateId());
+  }
+
+  @Test
+  void ignoresAMissingFile() {
+    assertNull(snapshot.read(LEDGER_ID, filterKey));
+  }
+
+  @Test
+  void ignoresAnotherLedgerOrFilter() throws IOException {
+    snapshot.write(LEDGER_ID, filterKey, "42", Collections.singletonList(created("#1:0")));
+
+    assertNull(snapshot.read("another", filterKey));
+    assertNull(snapshot.read(LEDGER_ID, filterKey("CCP", TEMPLATE_ID, Trade.TEMPLATE_ID)));
+    assertNull(snapshot.read(LEDGER_ID, filterKey("Citi", TEMPLATE_ID)));
+    assertNotNull(snapshot.read(LEDGER_ID, filterKey));
+  }
+
+  @Test
+  void readsTheSnapshotOfAFilterLongerThanAHeaderString() throws IOException {
+    Map<String, Set<Identifier>> templatesByParty = new HashMap<>();
+    for (int i = 0; i < 2000; i++) {
+      templatesByParty.put(
+          "Participant" + i, Collections.singleton(new Identifier("pkg" + i, "Main", "Trade")));
+    }
+    String longFilterKey = LedgerSnapshot.filterKey(templatesByParty);
+    snapshot.write(LEDGER_ID, longFilterKey, "42", Collections.singletonList(created("#1:0")));
+
+    assertNotNull(snapshot.read(LEDGER_ID, longFilterKey));
+    assertNull(snapshot.read(LEDGER_ID, filterKey));
+  }
+
+  @Test
+  void ignoresAnUnreadableFile() throws IOException {
+    Files.write(file.toPath(), "not a snapshot".getBytes());
+
+    assertNull(snapshot.read(LEDGER_ID, filterKey));
+  }
+
+  @Test
+  void resumesFromTheOffsetOfItsContracts() throws IOException {
+    LedgerSubscription subscription = new LedgerSubscription();
+    subscription.enableSnapshots(snapshot, 60);
+    assertNull(subscription.getSnapshotState());
+
+    subscription.keepActiveContracts(Arrays.asList(created("#1:0"), created("#1:1")), null);
+    assertNull(subscription.getSnapshotState()); // Active contract set not complete
+    subscription.keepActiveContracts(Collections.singletonList(created("#2:0")), "2");
+    subscription.keepActiveContracts(Arrays.asList(archived("#1:0"), created("#3:0")), "3");
+
+    LedgerSnapshot.State state = subscription.getSnapshotState();
+    snapshot.write(LEDGER_ID, filterKey, state.offset, state.contracts);
+    LedgerSnapshot.State resumed = snapshot.read(LEDGER_ID, filterKey);
+
+    assertEquals("3", resumed.offset);
+    assertEquals(
+        Arrays.asList("#1:1", "#2:0", "#3:0"),
+        resumed.contracts.stream().map(CreatedEvent::getContractId).collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import main.security.Security;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A LotCompaction")
+public class LotCompactionTests {
+
+  @Test
+  void mergesDisjointPairsOfAFragmentedGroup() {
+    Map<String, List<String>> lots = new LinkedHashMap<>();
+    lots.put("912828YS3", Arrays.asList("a", "b", "c", "d", "e"));
+
+    List<LotCompaction.Merge> merges = LotCompaction.merges(lots, 4);
+
+    assertEquals(2, merges.size());
+    Set<String> used = new HashSet<>();
+    for (LotCompaction.Merge merge : merges) {
+      assertTrue(used.add(merge.lotId));
+      assertTrue(used.add(merge.intoId));
+    }
+    assertFalse(used.contains("e"));
+  }
+
+  @Test
+  void leavesGroupsAtOrBelowTheThreshold() {
+    Map<String, List<String>> lots = new LinkedHashMap<>();
+    lots.put("USD", Arrays.asList("a", "b", "c"));
+    lots.put("EUR", Arrays.asList("d", "e", "f", "g"));
+
+    List<LotCompaction.Merge> merges = LotCompaction.merges(lots, 3);
+
+    assertEquals(2, merges.size());
+    merges.forEach(merge -> assertTrue("defg".contains(merge.lotId)));
+  }
+
+  @Test
+  void groupsLotsAsTheyAreCreatedAndArchived() {
+    LotCompaction.Groups<String> groups =
+        new LotCompaction.Groups<>(c -> ((Security) c).cusip, () -> 2);
+    for (String lotId : Arrays.asList("a", "b", "c")) {
+      groups.created(lotId, new Security("912828YS3", "CCP", BigDecimal.ONE, "CCP"));
+    }
+    groups.created("d", new Security("912828YT1", "CCP", BigDecimal.ONE, "CCP"));
+    assertEquals(1, groups.getFragmentedCount());
+
+    List<LotCompaction.Merge> merges = groups.merges();
+    assertEquals(1, merges.size());
+    assertEquals("b", merges.get(0).lotId);
+    assertEquals("a", merges.get(0).intoId);
+
+    groups.archived("a"); // Merged
+    groups.archived("b");
+    assertEquals(0, groups.getFragmentedCount());
+    assertTrue(groups.merges().isEmpty());
+  }
+}
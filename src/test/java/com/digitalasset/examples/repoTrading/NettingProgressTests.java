@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A NettingProgress")
+public class NettingProgressTests {
+
+  NettingProgress progress;
+
+  @BeforeEach
+  void setupProgress() {
+    List<List<String>> groups =
+        Arrays.asList(
+            Arrays.asList("a1", "a2"),
+            Arrays.asList("b1", "b2"),
+            Arrays.asList("c1", "c2"),
+            Arrays.asList("d1", "d2"),
+            Arrays.asList("e1", "e2"));
+    progress = new NettingProgress(groups, 2);
+  }
+
+  @Test
+  void splitsTheGroupsIntoChunks() {
+    assertEquals(5, progress.getGroupCount());
+    assertEquals(3, progress.getChunks().size());
+    assertEquals(1, progress.getChunks().get(2).groups.size());
+    assertFalse(progress.isComplete());
+  }
+
+  @Test
+  void completesAChunkWhenAllItsGroupsAreFormed() {
+    assertNull(progress.groupFormed(Arrays.asList("a1", "a2")));
+    NettingProgress.Chunk chunk = progress.groupFormed(Arrays.asList("b1", "b2"));
+
+    assertNotNull(chunk);
+    assertEquals(0, chunk.index);
+    assertTrue(chunk.isComplete());
+    assertNull(progress.groupFormed(Arrays.asList("b1", "b2"))); // Seen again
+  }
+
+  @Test
+  void completesWhenEveryChunkIsComplete() {
+    Arrays.asList("a1", "b1", "c1", "d1", "e1")
+        .forEach(id -> progress.groupFormed(Collections.singletonList(id)));
+
+    assertTrue(progress.isComplete());
+  }
+
+  @Test
+  void ignoresGroupsOfOtherTrades() {
+    assertNull(progress.groupFormed(Collections.singletonList("z1")));
+    assertNull(progress.groupFormed(Collections.emptyList()));
+  }
+
+  @Test
+  void retriesAChunkOnceWhenItsTradesReturn() {
+    progress.tradeReturned("c1");
+    progress.tradeReturned("c2");
+    progress.tradeReturned("d1");
+
+    List<NettingProgress.Chunk> failed = progress.takeFailedChunks();
+    assertEquals(1, failed.size());
+    assertEquals(1, failed.get(0).index);
+    assertTrue(progress.takeFailedChunks().isEmpty());
+
+    progress.tradeReturned("c1"); // The retry has failed too
+    assertEquals(1, progress.takeFailedChunks().size());
+  }
+
+  @Test
+  void neverRetriesACompleteChunk() {
+    progress.groupFormed(Arrays.asList("e1", "e2"));
+    progress.tradeReturned("e1");
+
+    assertTrue(progress.takeFailedChunks().isEmpty());
+  }
+}
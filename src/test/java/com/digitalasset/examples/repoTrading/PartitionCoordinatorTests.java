@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A PartitionCoordinator")
+public class PartitionCoordinatorTests {
+
+  private static final LocalDate DATE = LocalDate.of(2019, 3, 1);
+
+  @Test
+  void writesAStatusLinePerDateInOrder() {
+    Map<LocalDate, PartitionCoordinator.CycleSummary> completed = new HashMap<>();
+    completed.put(DATE.plusDays(1), new PartitionCoordinator.CycleSummary(10, 2));
+    completed.put(DATE, new PartitionCoordinator.CycleSummary(40, 7));
+
+    assertEquals("2019-03-01 40 7\n2019-03-02 10 2\n", PartitionCoordinator.status(completed));
+  }
+
+  @Test
+  void parsesTheStatusItWrites() {
+    Map<LocalDate, PartitionCoordinator.CycleSummary> parsed =
+        PartitionCoordinator.parseStatus(
+            PartitionCoordinator.status(
+                Collections.singletonMap(DATE, new PartitionCoordinator.CycleSummary(40, 7))));
+
+    assertEquals(1, parsed.size());
+    assertEquals(40, parsed.get(DATE).trades);
+    assertEquals(7, parsed.get(DATE).dvps);
+  }
+
+  @Test
+  void parsesAnEmptyStatus() {
+    assertTrue(PartitionCoordinator.parseStatus("").isEmpty());
+  }
+
+  @Test
+  void completesADateOnlyOnceEveryPartitionHasSettledIt() {
+    PartitionCoordinator.CycleSummary own = new PartitionCoordinator.CycleSummary(40, 7);
+
+    assertSame(own, new PartitionCoordinator(Collections.emptyList()).settled(DATE, own));
+    assertNull(
+        new PartitionCoordinator(Collections.singletonList("localhost:1")).settled(DATE, own));
+  }
+}
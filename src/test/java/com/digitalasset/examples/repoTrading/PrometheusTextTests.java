@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.LatencyHistogram;
+import com.digitalasset.examples.repoTrading.util.PrometheusText;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A PrometheusText")
+public class PrometheusTextTests {
+
+  @Test
+  void writesCountersWithHelpAndType() {
+    String text =
+        new PrometheusText()
+            .counter("commands_total", "Commands.", PrometheusText.labels("party", "Citi"), 42)
+            .toString();
+
+    assertEquals(
+        "# HELP commands_total Commands.\n"
+            + "# TYPE commands_total counter\n"
+            + "commands_total{party=\"Citi\"} 42\n",
+        text);
+  }
+
+  @Test
+  void writesAGaugeSamplePerLabelValue() {
+    Map<String, Integer> contracts = new LinkedHashMap<>();
+    contracts.put("Main.Trade:Trade", 3);
+    contracts.put("Main.Cash:Cash", 0);
+
+    String text =
+        new PrometheusText()
+            .gauge("contracts", "Contracts.", PrometheusText.labels(), "template", contracts)
+            .toString();
+
+    assertTrue(text.contains("contracts{template=\"Main.Trade:Trade\"} 3\n"));
+    assertTrue(text.contains("contracts{template=\"Main.Cash:Cash\"} 0\n"));
+  }
+
+  @Test
+  void writesACounterSamplePerLabelValue() {
+    Map<String, Double> seconds = new LinkedHashMap<>();
+    seconds.put("Main.Trade:Trade", 0.25);
+
+    String text =
+        new PrometheusText()
+            .counter(
+                "decode_seconds_total", "Decoding.", PrometheusText.labels(), "template", seconds)
+            .toString();
+
+    assertTrue(text.contains("# TYPE decode_seconds_total counter\n"));
+    assertTrue(text.contains("decode_seconds_total{template=\"Main.Trade:Trade\"} 0.25\n"));
+  }
+
+  @Test
+  void escapesLabelValues() {
+    assertEquals(
+        "{a=\"x\\\"y\\\\z\\n\",b=\"c\"}", PrometheusText.labels("a", "x\"y\\z\n", "b", "c"));
+  }
+
+  @Test
+  void writesSummariesInSeconds() {
+    LatencyHistogram latency = new LatencyHistogram();
+    latency.record(500_000_000);
+    latency.record(1_500_000_000);
+
+    String text =
+        new PrometheusText()
+            .summary("latency_seconds", "Latency.", PrometheusText.labels("party", "CCP"), latency)
+            .toString();
+
+    assertTrue(text.contains("# TYPE latency_seconds summary\n"));
+    assertTrue(text.contains("latency_seconds{party=\"CCP\",quantile=\"0.99\"} 1.5\n"));
+    assertTrue(text.contains("latency_seconds_sum{party=\"CCP\"} 2\n"));
+    assertTrue(text.contains("latency_seconds_count{party=\"CCP\"} 2\n"));
+  }
+
+  @Test
+  void writesJvmMemoryAndCollectorMetrics() {
+    String text = new PrometheusText().jvm().toString();
+
+    assertTrue(text.contains("jvm_memory_bytes_used{area=\"heap\"} "));
+    assertTrue(text.contains("# TYPE jvm_gc_collection_seconds summary\n"));
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import main.security.Security;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A SecurityInventory")
+public class SecurityInventoryTests {
+
+  static final String CCP = "CCP";
+  static final String CUSIP = "912828YS3";
+
+  SecurityInventory inventory;
+
+  @BeforeEach
+  void setupInventory() {
+    inventory = new SecurityInventory(CCP);
+    lot("s10", CUSIP, 10);
+    lot("s30", CUSIP, 30);
+    lot("s50", CUSIP, 50);
+    lot("other", "912796RX9", 100);
+  }
+
+  private void lot(String contractId, String cusip, long quantity) {
+    inventory.created(contractId, new Security(cusip, CCP, BigDecimal.valueOf(quantity), CCP));
+  }
+
+  @Test
+  void reservesTheSmallestLotThatFits() {
+    assertEquals(Optional.of(Collections.singletonList("s30")), reserve(25));
+    assertEquals(BigDecimal.valueOf(60), inventory.availableQuantity(CUSIP));
+  }
+
+  @Test
+  void combinesTheLargestLotsWhenNoneFits() {
+    assertEquals(Optional.of(Arrays.asList("s50", "s30")), reserve(70));
+    assertEquals(BigDecimal.valueOf(10), inventory.availableQuantity(CUSIP));
+  }
+
+  @Test
+  void neverReservesALotTwice() {
+    List<String> first = reserve(50).get();
+    List<String> second = reserve(40).get();
+
+    assertTrue(Collections.disjoint(first, second));
+    assertEquals(new HashSet<>(Arrays.asList("s50", "s30", "s10")), union(first, second));
+    assertFalse(reserve(1).isPresent());
+  }
+
+  @Test
+  void returnsLotsCreatedAgainAfterAFailedAllocation() {
+    List<String> reserved = reserve(50).get();
+    inventory.archived("s50"); // Pending on the allocation
+    inventory.created("s50", new Security(CUSIP, CCP, BigDecimal.valueOf(50), CCP)); // Failed
+
+    assertEquals(reserved, reserve(50).get());
+  }
+
+  @Test
+  void ignoresTheLotsOfOtherOwners() {
+    inventory.created("theirs", new Security(CUSIP, "Citi", BigDecimal.valueOf(500), CCP));
+
+    assertFalse(reserve(100).isPresent());
+    assertEquals(4, inventory.size());
+  }
+
+  private Optional<List<String>> reserve(long quantity) {
+    return inventory.reserve(CUSIP, BigDecimal.valueOf(quantity));
+  }
+
+  private static HashSet<String> union(List<String> a, List<String> b) {
+    HashSet<String> all = new HashSet<>(a);
+    all.addAll(b);
+    return all;
+  }
+}
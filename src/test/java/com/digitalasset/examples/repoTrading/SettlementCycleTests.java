@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import main.trade.NovatedTrade;
+import main.trade.TradeRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A SettlementCycle")
+public class SettlementCycleTests {
+
+  private static final LocalDate DATE = LocalDate.parse("2018-06-28");
+
+  SettlementCycle cycle;
+
+  @BeforeEach
+  void setupCycle() {
+    cycle = new SettlementCycle(DATE, 3); // 3 DvPs settled for the date by an earlier cycle
+  }
+
+  private static NovatedTrade novatedTrade(long tradeId, String participant, String cusip) {
+    return new NovatedTrade(
+        participant,
+        true,
+        new TradeRecord(
+            tradeId,
+            cusip,
+            DATE.atStartOfDay(ZoneOffset.UTC).toInstant(),
+            DATE.minusDays(3).atStartOfDay(ZoneOffset.UTC).toInstant(),
+            BigDecimal.valueOf(100),
+            BigDecimal.valueOf(100),
+            BigDecimal.valueOf(5),
+            1L,
+            BigDecimal.valueOf(10),
+            BigDecimal.valueOf(11),
+            "USD"),
+        "CCP");
+  }
+
+  /** Novate two trades of one CUSIP, each giving a NovatedTrade for each side */
+  private void novateTwoTrades() {
+    cycle.tradesNovated(2);
+    cycle.novatedTradeCreated("n1", novatedTrade(1, "Citi", "912828YS3"));
+    cycle.novatedTradeCreated("n2", novatedTrade(1, "HSBC", "912828YS3"));
+    assertFalse(cycle.isReadyToNet());
+    cycle.novatedTradeCreated("n3", novatedTrade(2, "Citi", "912828YS3"));
+    cycle.novatedTradeCreated("n4", novatedTrade(2, "HSBC", "912828YS3"));
+  }
+
+  @Test
+  void isReadyToNetOnceEveryTradeIsNovated() {
+    assertFalse(cycle.isReadyToNet());
+    novateTwoTrades();
+    assertTrue(cycle.isReadyToNet());
+  }
+
+  @Test
+  void isReadyToNetWithoutTheTradesOfAFailedNovation() {
+    cycle.tradesNovated(1); // A third trade, in a command of its own
+    novateTwoTrades();
+    assertFalse(cycle.isReadyToNet());
+
+    cycle.novationFailed(1);
+    assertTrue(cycle.isReadyToNet());
+    assertFalse(cycle.isNovationFailed());
+  }
+
+  @Test
+  void failsOnceEveryNovationHasFailed() {
+    cycle.tradesNovated(2);
+    cycle.novationFailed(1);
+    assertFalse(cycle.isNovationFailed());
+    cycle.novationFailed(1);
+    assertTrue(cycle.isNovationFailed());
+    assertFalse(cycle.isReadyToNet());
+  }
+
+  @Test
+  void startsNettingOnlyOnce() {
+    novateTwoTrades();
+    NettingProgress progress = cycle.startNetting(10);
+
+    assertEquals(2, progress.getGroupCount()); // A group per participant
+    assertSame(progress, cycle.getNettingProgress());
+    assertFalse(cycle.isReadyToNet());
+  }
+
+  @Test
+  void completesWhenEveryGroupIsFormedAndItsDvpSettled() {
+    novateTwoTrades();
+    NettingProgress progress = cycle.startNetting(10);
+    assertFalse(cycle.isComplete(3));
+
+    for (NettingProgress.Chunk chunk : progress.getChunks()) {
+      chunk.groups.forEach(progress::groupFormed);
+    }
+    assertFalse(cycle.isComplete(4));
+    assertTrue(cycle.isComplete(5));
+    assertEquals(2, cycle.settledDvps(5));
+  }
+
+  @Test
+  void neverCompletesBeforeNetting() {
+    novateTwoTrades();
+    assertFalse(cycle.isComplete(100));
+  }
+
+  @Test
+  void retriesNettingWhenATradeReturns() {
+    novateTwoTrades();
+    cycle.startNetting(10);
+    cycle.novatedTradeArchived("n1"); // Submitted for netting
+    cycle.novatedTradeCreated("n1", novatedTrade(1, "Citi", "912828YS3")); // The command failed
+
+    assertEquals(1, cycle.getNettingProgress().takeFailedChunks().size());
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A SettlementTracer")
+public class SettlementTracerTests {
+
+  long now;
+  SettlementTracer tracer;
+
+  @BeforeEach
+  void setupTracer() {
+    now = 0;
+    tracer = new SettlementTracer(true, () -> now);
+  }
+
+  @Test
+  @DisplayName("counts injected trades")
+  void countsInjectedTrades() {
+    tracer.injected(1);
+    tracer.injected(2);
+    tracer.injected(1);
+
+    assertEquals(2, tracer.getDepth(SettlementTracer.Stage.INJECTED));
+    assertEquals(2, tracer.getTraceCount());
+  }
+
+  @Test
+  @DisplayName("drops trades that have not moved on once stale")
+  void dropsStaleTrades() {
+    tracer.injected(1);
+    now += SettlementTracer.STALE_NANOS - TimeUnit.MINUTES.toNanos(1);
+    tracer.injected(2);
+    now += TimeUnit.MINUTES.toNanos(1);
+    tracer.injected(3);
+
+    assertEquals(2, tracer.getDepth(SettlementTracer.Stage.INJECTED));
+    assertEquals(2, tracer.getTraceCount());
+  }
+
+  @Test
+  @DisplayName("does nothing when disabled")
+  void doesNothingWhenDisabled() {
+    tracer = new SettlementTracer(false, () -> now);
+    tracer.injected(1);
+
+    assertEquals(0, tracer.getDepth(SettlementTracer.Stage.INJECTED));
+    assertEquals(0, tracer.getTraceCount());
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.digitalasset.examples.repoTrading.util.TokenBucket;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A TokenBucket")
+public class TokenBucketTests {
+
+  long now;
+  TokenBucket bucket;
+
+  @BeforeEach
+  void setupBucket() {
+    now = 0;
+    bucket = new TokenBucket(100, 5, () -> now);
+  }
+
+  @Test
+  void allowsABurstUpToItsCapacity() {
+    for (int i = 0; i < 5; i++) {
+      assertTrue(bucket.tryAcquire());
+    }
+    assertFalse(bucket.tryAcquire());
+  }
+
+  @Test
+  void refillsAtItsRate() {
+    while (bucket.tryAcquire()) {}
+
+    now += TimeUnit.MILLISECONDS.toNanos(10);
+    assertTrue(bucket.tryAcquire());
+    assertFalse(bucket.tryAcquire());
+
+    now += TimeUnit.MILLISECONDS.toNanos(25);
+    assertTrue(bucket.tryAcquire());
+    assertTrue(bucket.tryAcquire());
+    assertFalse(bucket.tryAcquire());
+  }
+
+  @Test
+  void neverHoldsMoreThanItsCapacity() {
+    now += TimeUnit.SECONDS.toNanos(60);
+    int taken = 0;
+    while (bucket.tryAcquire()) {
+      taken++;
+    }
+    assertEquals(5, taken);
+  }
+
+  @Test
+  void rejectsANonPositiveRate() {
+    assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+  }
+}
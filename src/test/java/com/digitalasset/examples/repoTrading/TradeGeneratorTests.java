@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A TradeGenerator")
+public class TradeGeneratorTests {
+
+  private static final List<String> PARTIES = Arrays.asList("Barclays", "Citi", "HSBC", "JPMorgan");
+
+  private static List<String[]> generate(String... options) throws IOException {
+    String[] args = Arrays.copyOf(options, options.length + 1);
+    args[options.length] = "trades.csv";
+    TradeGenerator generator = new TradeGenerator(PARTIES);
+    assertTrue(RepoTradingMain.parseArguments(generator, args));
+    assertNull(generator.validate());
+
+    StringWriter out = new StringWriter();
+    generator.generate(out);
+    List<String> lines = Arrays.asList(out.toString().split("\\R"));
+    assertEquals(TradeGenerator.HEADER, lines.get(0));
+    return lines.subList(1, lines.size()).stream()
+        .map(l -> l.split(","))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void isDeterministicForASeed() throws IOException {
+    List<String> first =
+        generate("--seed", "7", "--trades", "500", "--netZero", "0.5").stream()
+            .map(t -> String.join(",", t))
+            .collect(Collectors.toList());
+    List<String> second =
+        generate("--seed", "7", "--trades", "500", "--netZero", "0.5").stream()
+            .map(t -> String.join(",", t))
+            .collect(Collectors.toList());
+    List<String> other =
+        generate("--seed", "8", "--trades", "500", "--netZero", "0.5").stream()
+            .map(t -> String.join(",", t))
+            .collect(Collectors.toList());
+
+    assertEquals(first, second);
+    assertNotEquals(first, other);
+  }
+
+  @Test
+  void writesTradesBetweenConfiguredParties() throws IOException {
+    List<String[]> trades = generate("--trades", "1000", "--cusips", "20");
+
+    assertEquals(1000, trades.size());
+    for (int i = 0; i < trades.size(); i++) {
+      String[] trade = trades.get(i);
+      assertEquals(13, trade.length);
+      assertEquals(Integer.toString(i + 1), trade[0]);
+      assertTrue(PARTIES.contains(trade[1]));
+      assertTrue(PARTIES.contains(trade[2]));
+      assertNotEquals(trade[1], trade[2]);
+      assertEquals(8, trade[3].length());
+    }
+    assertEquals(20, trades.stream().map(t -> t[3]).distinct().count());
+  }
+
+  @Test
+  void spreadsSettlementOverBusinessDays() throws IOException {
+    List<String[]> trades =
+        generate("--trades", "300", "--dates", "3", "--startDate", "2018-06-29");
+
+    assertEquals(
+        new TreeSet<>(Arrays.asList("2018-06-29", "2018-07-02", "2018-07-03")),
+        trades.stream().map(t -> t[5]).collect(Collectors.toCollection(TreeSet::new)));
+  }
+
+  @Test
+  void concentratesTradesOnFewCusipsWhenSkewed() throws IOException {
+    assertTrue(
+        topCusipShare(generate("--trades", "2000", "--skew", "1.5"))
+            > 2 * topCusipShare(generate("--trades", "2000")));
+  }
+
+  private static double topCusipShare(List<String[]> trades) {
+    Map<String, Integer> counts = new HashMap<>();
+    trades.forEach(t -> counts.merge(t[3], 1, Integer::sum));
+    return counts.values().stream().mapToInt(Integer::intValue).max().getAsInt()
+        / (double) trades.size();
+  }
+
+  @Test
+  void generatesOffsettingPairsThatNetToZero() throws IOException {
+    List<String[]> trades = generate("--trades", "1001", "--netZero", "1");
+
+    // Each trade is matched by one with lender and borrower swapped, bar the odd one out
+    Map<String, Integer> net = new HashMap<>();
+    for (String[] t : trades) {
+      String terms = String.join(",", Arrays.copyOfRange(t, 3, 13));
+      net.merge(t[1] + "->" + t[2] + "," + terms, 1, Integer::sum);
+      net.merge(t[2] + "->" + t[1] + "," + terms, -1, Integer::sum);
+    }
+    assertEquals(2, net.values().stream().filter(n -> n != 0).count());
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2019, Digital Asset (Switzerland) GmbH and/or its affiliates. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.digitalasset.examples.repoTrading;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import main.trade.Trade;
+import main.trade.TradeRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+@RunWith(JUnitPlatform.class)
+@DisplayName("A TradeIndex")
+public class TradeIndexTests {
+
+  private static final LocalDate DATE = LocalDate.parse("2018-06-28");
+
+  private static Trade trade(
+      long tradeId, String lender, String borrower, String cusip, LocalDate date, long quantity) {
+    BigDecimal startAmount = BigDecimal.valueOf(quantity).movePointLeft(1);
+    return new Trade(
+        borrower,
+        lender,
+        new TradeRecord(
+            tradeId,
+            cusip,
+            date.atStartOfDay(ZoneOffset.UTC).toInstant(),
+            date.minusDays(3).atStartOfDay(ZoneOffset.UTC).toInstant(),
+            BigDecimal.valueOf(quantity),
+            BigDecimal.valueOf(100),
+            BigDecimal.valueOf(5),
+            26L,
+            startAmount,
+            startAmount,
+            "USD"),
+        "CCP");
+  }
+
+  /** Trades 1 to 12, between Citi and HSBC or Barclays, in two CUSIPs, over two dates */
+  private static TradeIndex index() {
+    TradeIndex index = new TradeIndex();
+    for (int i = 1; i <= 12; i++) {
+      index.created(
+          "#" + i + ":0",
+          trade(
+              i,
+              "Citi",
+              i % 3 == 0 ? "Barclays" : "HSBC",
+              i % 2 == 0 ? "CUSIP2" : "CUSIP1",
+              DATE.plusDays(i % 2),
+              1000 * i));
+    }
+    return index;
+  }
+
+  private static TradeIndex.TradeFilter filter(LocalDate date, String participant, String cusip) {
+    return new TradeIndex.TradeFilter(date, participant, cusip, null);
+  }
+
+  @Test
+  void totalsTheTradesOfAFilter() {
+    TradeIndex.TradePage all = index().query(filter(null, null, null), null, 100);
+    assertEquals(12, all.totals.getCount());
+    assertEquals(0, BigDecimal.valueOf(78_000).compareTo(all.totals.getCollateralQuantity()));
+    assertEquals(0, BigDecimal.valueOf(7_800).compareTo(all.totals.getStartAmount()));
+    assertNull(all.lastContractId);
+
+    // Trades 3, 6, 9 and 12 are with Barclays
+    TradeIndex.TradePage barclays = index().query(filter(null, "Barclays", null), null, 100);
+    assertEquals(4, barclays.totals.getCount());
+    assertEquals(0, BigDecimal.valueOf(30_000).compareTo(barclays.totals.getCollateralQuantity()));
+  }
+
+  @Test
+  void combinesFilters() {
+    // Of Barclays' trades, 6 and 12 are in CUSIP2, and settle on DATE
+    TradeIndex.TradePage page = index().query(filter(DATE, "Barclays", "CUSIP2"), null, 100);
+
+    assertEquals(2, page.totals.getCount());
+    assertEquals(2, page.trades.size());
+    for (int i = 0; i < page.trades.size(); i++) {
+      Trade trade = page.trades.get(i).getValue();
+      assertEquals("Barclays", trade.borrower);
+      assertEquals("CUSIP2", trade.tradeInfo.cusip);
+    }
+  }
+
+  @Test
+  void totalsADateCombinedWithAnotherFilter() {
+    // The even trades settle on DATE, and all are in USD
+    TradeIndex index = index();
+    TradeIndex.TradePage page =
+        index.query(new TradeIndex.TradeFilter(DATE, null, null, "USD"), null, 4);
+    assertEquals(6, page.totals.getCount());
+    assertEquals(0, BigDecimal.valueOf(42_000).compareTo(page.totals.getCollateralQuantity()));
+    assertEquals(4, page.trades.size());
+    assertNotNull(page.lastContractId);
+
+    // Of those, 6 and 12 are with Barclays, and 2, 4, 8 and 10 with HSBC
+    assertEquals(2, index.query(filter(DATE, "Barclays", null), null, 100).totals.getCount());
+    assertEquals(4, index.query(filter(DATE, "HSBC", null), null, 100).trades.size());
+
+    index.archived("#6:0");
+    assertEquals(1, index.query(filter(DATE, "Barclays", null), null, 100).totals.getCount());
+    assertEquals(5, index.query(filter(DATE, null, "CUSIP2"), null, 100).totals.getCount());
+  }
+
+  @Test
+  void pagesThroughTheTradesOnce() {
+    TradeIndex index = index();
+    List<String> seen = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      TradeIndex.TradePage page = index.query(filter(null, "HSBC", null), cursor, 3);
+      assertEquals(8, page.totals.getCount());
+      page.trades.forEach(t -> seen.add(t.getKey()));
+      cursor = page.lastContractId;
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(3, pages);
+    assertEquals(8, seen.size());
+    assertEquals(8, seen.stream().distinct().count());
+  }
+
+  @Test
+  void removesArchivedTradesFromEveryIndex() {
+    TradeIndex index = index();
+    index.archived("#3:0");
+    index.archived("#3:0");
+
+    assertEquals(11, index.size());
+    assertEquals(3, index.query(filter(null, "Barclays", null), null, 100).totals.getCount());
+    assertEquals(11, index.query(filter(null, "Citi", null), null, 100).totals.getCount());
+    assertEquals(5, index.query(filter(null, null, "CUSIP1"), null, 100).totals.getCount());
+    assertEquals(5, index.getTrades(DATE.plusDays(1)).size());
+  }
+
+  @Test
+  void removesTheIndexEntriesOfTheLastTradeArchived() {
+    TradeIndex index = index();
+    assertEquals(18, index.getPostingCount());
+
+    // Barclays, and Barclays on each date
+    for (int i = 3; i <= 12; i += 3) {
+      index.archived("#" + i + ":0");
+    }
+    assertEquals(15, index.getPostingCount());
+    assertEquals(0, index.query(filter(DATE, "Barclays", null), null, 100).totals.getCount());
+
+    for (int i = 1; i <= 12; i++) {
+      index.archived("#" + i + ":0");
+    }
+    assertEquals(0, index.getPostingCount());
+    assertEquals(0, index.query(filter(null, null, null), null, 100).totals.getCount());
+  }
+}